@@ -0,0 +1,129 @@
+package application.f3cro.facetracking;
+
+import android.Manifest;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.os.Environment;
+import android.support.v4.app.ActivityCompat;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.widget.TextView;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Aktywność uruchamiająca analizę twarzy na zdjęciach z katalogu ({@link BatchFaceAnalyzer}) i pokazująca
+ * jej postęp. Parametry przekazywane w intencji:
+ *
+ * {@code directory} - katalog ze zdjęciami (domyślnie Pictures/batch w katalogu aplikacji),
+ * {@code output} - nazwa pliku wynikowego JSON Lines (domyślnie batch_faces.jsonl); plik zawsze
+ * trafia do katalogu wyników aplikacji, ścieżka z intencji nie jest używana,
+ * {@code workers} - liczba wątków roboczych, najwyżej tyle, ile rdzeni procesora.
+ */
+public final class BatchDetectionActivity extends AppCompatActivity {
+    private static final String TAG = "Analiza zdjęć";
+
+    static final String EXTRA_DIRECTORY = "directory";
+    static final String EXTRA_OUTPUT = "output";
+    static final String EXTRA_WORKERS = "workers";
+
+    private static final String DEFAULT_DIRECTORY = "batch";
+    private static final String DEFAULT_OUTPUT = "batch_faces.jsonl";
+    // Osobny katalog na wyniki, aby intencja nie mogła wskazać innych plików aplikacji
+    private static final String RESULTS_DIRECTORY = "batch_results";
+
+    // kody żądań uprawnień muszą być < 256
+    private static final int RC_HANDLE_STORAGE_PERM = 3;
+
+    private TextView mStatus;
+    private BatchFaceAnalyzer mAnalyzer;
+
+    @Override
+    public void onCreate(Bundle icicle) {
+        super.onCreate(icicle);
+        setContentView(R.layout.activity_batch_detection);
+        mStatus = (TextView) findViewById(R.id.status);
+
+        int rc = ActivityCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE);
+        if (rc == PackageManager.PERMISSION_GRANTED) {
+            startAnalysis();
+        } else {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.READ_EXTERNAL_STORAGE}, RC_HANDLE_STORAGE_PERM);
+        }
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        if (requestCode != RC_HANDLE_STORAGE_PERM) {
+            super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+            return;
+        }
+
+        if (grantResults.length != 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            startAnalysis();
+        } else {
+            mStatus.setText(R.string.no_storage_permission);
+        }
+    }
+
+    /**
+     * Przerywa analizę - po ponownym uruchomieniu zostanie wznowiona od nieprzetworzonych zdjęć. Nowa
+     * analiza czeka, aż przerwana przestanie zapisywać wyniki (zob. {@link BatchFaceAnalyzer}).
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mAnalyzer != null) {
+            mAnalyzer.cancel();
+        }
+    }
+
+    private void startAnalysis() {
+        File appPictures = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        File appFiles = getExternalFilesDir(null);
+
+        String directory = getIntent().getStringExtra(EXTRA_DIRECTORY);
+        File input = directory != null ? new File(directory)
+                : new File(appPictures != null ? appPictures : getFilesDir(), DEFAULT_DIRECTORY);
+        String output = getIntent().getStringExtra(EXTRA_OUTPUT);
+        String outputName = output != null ? new File(output).getName() : "";
+        File result = new File(new File(appFiles != null ? appFiles : getFilesDir(), RESULTS_DIRECTORY),
+                outputName.isEmpty() || outputName.startsWith(".") ? DEFAULT_OUTPUT : outputName);
+        int workers = getIntent().getIntExtra(EXTRA_WORKERS, BatchFaceAnalyzer.defaultWorkerCount());
+
+        mAnalyzer = new BatchFaceAnalyzer(this, input, result, workers, new BatchFaceAnalyzer.Listener() {
+            @Override
+            public void onProgress(int processed, int total, double imagesPerSecond) {
+                showStatus(String.format(Locale.US, "Przetworzono %d/%d (%.1f zdjęć/s)",
+                        processed, total, imagesPerSecond));
+            }
+
+            @Override
+            public void onFinished(int processed, int total, double imagesPerSecond, boolean cancelled) {
+                showStatus(String.format(Locale.US, "%s: %d/%d (%.1f zdjęć/s)",
+                        cancelled ? "Przerwano" : "Zakończono", processed, total, imagesPerSecond));
+            }
+
+            @Override
+            public void onError(String message, Exception e) {
+                Log.e(TAG, message, e);
+                showStatus(message);
+            }
+        });
+        mStatus.setText("Katalog: " + input + "\nWynik: " + result
+                + "\nWątki: " + mAnalyzer.getWorkerCount() + "\n");
+        mAnalyzer.start();
+    }
+
+    private void showStatus(final String line) {
+        Log.i(TAG, line);
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mStatus.append(line + "\n");
+            }
+        });
+    }
+}
@@ -0,0 +1,435 @@
+package application.f3cro.facetracking;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.FaceDetector;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Analiza twarzy na zapisanych zdjęciach. Przechodzi rekurencyjnie katalog, dekoduje zdjęcia
+ * z pomniejszeniem ({@code inSampleSize}) do bitmap używanych ponownie ({@code inBitmap}) i przetwarza
+ * je ograniczoną pulą wątków, z osobnym detektorem w każdym wątku.
+ *
+ * Wynik jest dopisywany do pliku JSON Lines - jedna linia na zdjęcie z tymi samymi polami, które
+ * pokazuje {@link FaceModel} (numer, obwiednia, prawdopodobieństwo uśmiechu, kierunek twarzy).
+ * Zdjęcia, które mają już linię w pliku wynikowym, są pomijane, więc przerwaną analizę można wznowić.
+ * Orientacja z EXIF (obrót o 90, 180 lub 270 stopni) jest przekazywana detektorowi, więc obwiednie
+ * i rozmiar odnoszą się do zdjęcia w takim położeniu, w jakim jest wyświetlane. Orientacje z odbiciem
+ * lustrzanym (rzadkie) są analizowane bez odbicia.
+ * W procesie działa naraz tylko jedna analiza - nowa czeka, aż poprzednia (np. przerwana przy
+ * ponownym utworzeniu aktywności) zamknie plik wynikowy, zanim odczyta z niego przetworzone zdjęcia.
+ */
+class BatchFaceAnalyzer {
+    private static final String TAG = "BatchFaceAnalyzer";
+
+    // Dłuższy bok zdjęcia po pomniejszeniu nie przekroczy tej wartości (z dokładnością do potęgi 2)
+    private static final int MAX_DIMENSION = 1280;
+    private static final int REPORT_EVERY = 25;
+    private static final int FLUSH_EVERY = 16;
+    private static final String[] EXTENSIONS = {".jpg", ".jpeg", ".png", ".webp", ".bmp"};
+
+    // Trzymana przez cały przebieg analizy, aby dwie analizy nie dopisywały naraz do pliku wynikowego
+    private static final Object RUN_LOCK = new Object();
+
+    /**
+     * Postęp analizy. Wołane z wątków roboczych.
+     */
+    interface Listener {
+        void onProgress(int processed, int total, double imagesPerSecond);
+
+        void onFinished(int processed, int total, double imagesPerSecond, boolean cancelled);
+
+        void onError(String message, Exception e);
+    }
+
+    private final Context mContext;
+    private final File mInputDirectory;
+    private final File mOutput;
+    private final int mWorkers;
+    private final Listener mListener;
+
+    private volatile boolean mCancelled;
+    private Thread mThread;
+
+    private List<File> mPendingFiles;
+    private final AtomicInteger mNextFile = new AtomicInteger();
+    private final AtomicInteger mProcessed = new AtomicInteger();
+    private long mStartTime;
+
+    private Writer mWriter;
+    private int mUnflushedLines;
+
+    BatchFaceAnalyzer(Context context, File inputDirectory, File output, int workers, Listener listener) {
+        mContext = context.getApplicationContext();
+        mInputDirectory = inputDirectory;
+        mOutput = output;
+        // Każdy wątek ma własny natywny detektor, więc pula nie może przekroczyć liczby rdzeni
+        mWorkers = Math.max(1, Math.min(workers, maxWorkerCount()));
+        mListener = listener;
+    }
+
+    static int defaultWorkerCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    static int maxWorkerCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    int getWorkerCount() {
+        return mWorkers;
+    }
+
+    /**
+     * Uruchamia analizę na osobnym wątku.
+     */
+    synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RUN_LOCK) {
+                    if (!mCancelled) {
+                        BatchFaceAnalyzer.this.run();
+                    }
+                }
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Przerywa analizę. Zdjęcia już zapisane w pliku wynikowym zostaną pominięte po wznowieniu.
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    private void run() {
+        List<File> files = new ArrayList<>();
+        collectImages(mInputDirectory, files);
+        Collections.sort(files);
+
+        try {
+            Set<String> done = readProcessedFiles();
+            mPendingFiles = new ArrayList<>();
+            for (File file : files) {
+                if (!done.contains(file.getAbsolutePath())) {
+                    mPendingFiles.add(file);
+                }
+            }
+            Log.i(TAG, "Zdjęć: " + files.size() + ", do przetworzenia: " + mPendingFiles.size());
+
+            prepareOutput();
+            mWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mOutput, true), "UTF-8"));
+        } catch (IOException e) {
+            mListener.onError("Nie można otworzyć pliku wynikowego " + mOutput, e);
+            return;
+        }
+
+        mStartTime = SystemClock.elapsedRealtime();
+        ExecutorService executor = Executors.newFixedThreadPool(mWorkers);
+        for (int i = 0; i < mWorkers; i++) {
+            executor.execute(new Worker());
+        }
+        executor.shutdown();
+
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (mCancelled) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            synchronized (this) {
+                mWriter.close();
+            }
+        } catch (IOException e) {
+            mListener.onError("Nie można zapisać pliku wynikowego " + mOutput, e);
+        }
+
+        int processed = mProcessed.get();
+        mListener.onFinished(processed, mPendingFiles.size(), throughput(processed), mCancelled);
+    }
+
+    private class Worker implements Runnable {
+        private final FaceDetector mDetector;
+        private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+        private Bitmap mBitmap;
+
+        Worker() {
+            mDetector = new FaceDetector.Builder(mContext)
+                    .setTrackingEnabled(false)
+                    .setMode(FaceDetector.ACCURATE_MODE)
+                    .setClassificationType(FaceDetector.ALL_CLASSIFICATIONS)
+                    .build();
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!mDetector.isOperational()) {
+                    mListener.onError("Detektor twarzy nie jest jeszcze gotowy.", null);
+                    mCancelled = true;
+                    return;
+                }
+
+                int index;
+                while (!mCancelled && (index = mNextFile.getAndIncrement()) < mPendingFiles.size()) {
+                    File file = mPendingFiles.get(index);
+                    try {
+                        String line = analyze(file);
+                        if (line != null) {
+                            writeLine(line);
+                        }
+                    } catch (IOException | JSONException | RuntimeException e) {
+                        Log.w(TAG, "Nie udało się przeanalizować " + file, e);
+                    }
+
+                    int processed = mProcessed.incrementAndGet();
+                    if (processed % REPORT_EVERY == 0) {
+                        mListener.onProgress(processed, mPendingFiles.size(), throughput(processed));
+                    }
+                }
+            } finally {
+                mDetector.release();
+            }
+        }
+
+        private String analyze(File file) throws JSONException {
+            Bitmap bitmap = decode(file);
+            if (bitmap == null) {
+                Log.w(TAG, "Nie można zdekodować " + file);
+                return null;
+            }
+
+            int sampleSize = mOptions.inSampleSize;
+            int rotation = readRotation(file);
+            Frame frame = new Frame.Builder().setBitmap(bitmap).setRotation(rotation).build();
+            SparseArray<Face> faces = mDetector.detect(frame);
+
+            JSONArray facesJson = new JSONArray();
+            for (int i = 0; i < faces.size(); i++) {
+                Face face = faces.valueAt(i);
+                JSONObject faceJson = new JSONObject();
+                faceJson.put("id", faces.keyAt(i));
+                // Obwiednia w pikselach oryginalnego zdjęcia, po obrocie zgodnym z EXIF
+                faceJson.put("left", face.getPosition().x * sampleSize);
+                faceJson.put("top", face.getPosition().y * sampleSize);
+                faceJson.put("width", face.getWidth() * sampleSize);
+                faceJson.put("height", face.getHeight() * sampleSize);
+                faceJson.put("smile", face.getIsSmilingProbability());
+                faceJson.put("pose", FaceModel.getPrediction(face.getEulerY(), face.getEulerZ()));
+                facesJson.put(faceJson);
+            }
+
+            JSONObject json = new JSONObject();
+            json.put("file", file.getAbsolutePath());
+            boolean swap = rotation == Frame.ROTATION_90 || rotation == Frame.ROTATION_270;
+            json.put("width", swap ? mOptions.outHeight : mOptions.outWidth);
+            json.put("height", swap ? mOptions.outWidth : mOptions.outHeight);
+            json.put("faces", facesJson);
+            return json.toString();
+        }
+
+        /**
+         * Dekoduje zdjęcie pomniejszone tak, by dłuższy bok nie przekraczał {@link #MAX_DIMENSION},
+         * w miarę możliwości do bitmapy z poprzedniego zdjęcia. Po wywołaniu {@code mOptions.outWidth}
+         * i {@code mOptions.outHeight} zawierają rozmiar oryginału.
+         */
+        private Bitmap decode(File file) {
+            mOptions.inJustDecodeBounds = true;
+            mOptions.inBitmap = null;
+            mOptions.inSampleSize = 1;
+            BitmapFactory.decodeFile(file.getPath(), mOptions);
+            int width = mOptions.outWidth;
+            int height = mOptions.outHeight;
+            if (width <= 0 || height <= 0) {
+                return null;
+            }
+
+            int sampleSize = 1;
+            while (Math.max(width, height) / sampleSize > MAX_DIMENSION) {
+                sampleSize *= 2;
+            }
+
+            mOptions.inJustDecodeBounds = false;
+            mOptions.inSampleSize = sampleSize;
+            mOptions.inMutable = true;
+            mOptions.inBitmap = mBitmap;
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeFile(file.getPath(), mOptions);
+            } catch (IllegalArgumentException e) {
+                // Poprzednia bitmapa jest za mała na to zdjęcie
+                mOptions.inBitmap = null;
+                bitmap = BitmapFactory.decodeFile(file.getPath(), mOptions);
+            }
+            mOptions.inBitmap = null;
+
+            // decodeFile nadpisuje outWidth/outHeight rozmiarem po pomniejszeniu
+            mOptions.outWidth = width;
+            mOptions.outHeight = height;
+            if (bitmap != null) {
+                mBitmap = bitmap;
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Zamienia orientację EXIF zdjęcia na obrót ramki detektora. Zdjęcia bez EXIF nie są obracane.
+     */
+    private static int readRotation(File file) {
+        int orientation;
+        try {
+            orientation = new ExifInterface(file.getPath()).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return Frame.ROTATION_0;
+        }
+
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                return Frame.ROTATION_90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                return Frame.ROTATION_180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                return Frame.ROTATION_270;
+            default:
+                return Frame.ROTATION_0;
+        }
+    }
+
+    private synchronized void writeLine(String line) throws IOException {
+        mWriter.write(line);
+        mWriter.write('\n');
+        if (++mUnflushedLines >= FLUSH_EVERY) {
+            mWriter.flush();
+            mUnflushedLines = 0;
+        }
+    }
+
+    private double throughput(int processed) {
+        long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+        return elapsed > 0 ? processed * 1000.0 / elapsed : 0;
+    }
+
+    private static void collectImages(File directory, List<File> out) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectImages(child, out);
+            } else if (isImage(child.getName())) {
+                out.add(child);
+            }
+        }
+    }
+
+    private static boolean isImage(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        for (String extension : EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Zwraca ścieżki zdjęć zapisanych już w pliku wynikowym. Niekompletna ostatnia linia (przerwany
+     * zapis) jest pomijana, więc to zdjęcie zostanie przetworzone ponownie.
+     */
+    private Set<String> readProcessedFiles() throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!mOutput.isFile()) {
+            return done;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mOutput), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    String file = new JSONObject(line).optString("file");
+                    if (file != null && !file.isEmpty()) {
+                        done.add(file);
+                    }
+                } catch (JSONException e) {
+                    Log.w(TAG, "Pominięto uszkodzoną linię wyniku.");
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return done;
+    }
+
+    /**
+     * Kończy niekompletną ostatnią linię, aby kolejne wyniki zaczynały się od nowej linii.
+     */
+    private void prepareOutput() throws IOException {
+        File parent = mOutput.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Nie można utworzyć katalogu " + parent);
+        }
+        if (!mOutput.isFile() || mOutput.length() == 0) {
+            return;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(mOutput, "rw");
+        try {
+            file.seek(file.length() - 1);
+            if (file.read() != '\n') {
+                file.write('\n');
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
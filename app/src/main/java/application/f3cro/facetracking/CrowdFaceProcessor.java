@@ -0,0 +1,58 @@
+package application.f3cro.facetracking;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.Landmark;
+
+import java.util.List;
+
+/**
+ * Procesor dla scen z dużą liczbą twarzy. W przeciwieństwie do {@code MultiProcessor}, który tworzy
+ * osobny {@code Tracker} dla każdej twarzy i aktualizuje nakładkę pojedynczo, ten procesor odbiera
+ * całą klatkę w jednym wywołaniu, przepisuje twarze do {@link FaceTable} i przekazuje klatkę do
+ * nakładki jednym dodaniem i jednym odświeżeniem.
+ */
+class CrowdFaceProcessor implements Detector.Processor<Face> {
+    private final GraphicDraw mOverlay;
+    private final FaceTableGraphic mGraphic;
+
+    CrowdFaceProcessor(GraphicDraw overlay) {
+        mOverlay = overlay;
+        mGraphic = new FaceTableGraphic(overlay);
+    }
+
+    @Override
+    public void receiveDetections(Detector.Detections<Face> detections) {
+        SparseArray<Face> faces = detections.getDetectedItems();
+
+        FaceTable table = mGraphic.beginFrame();
+        for (int i = 0; i < faces.size(); i++) {
+            Face face = faces.valueAt(i);
+            table.add(faces.keyAt(i),
+                    face.getPosition().x, face.getPosition().y,
+                    face.getWidth(), face.getHeight(),
+                    face.getEulerY(), face.getEulerZ(),
+                    face.getIsSmilingProbability());
+
+            List<Landmark> landmarks = face.getLandmarks();
+            for (int j = 0; j < landmarks.size(); j++) {
+                Landmark landmark = landmarks.get(j);
+                table.addLandmark(landmark.getType(), landmark.getPosition().x, landmark.getPosition().y);
+            }
+        }
+        mGraphic.swapFrame();
+
+        // Nakładka może zostać wyczyszczona przy restarcie kamery, dlatego grafika jest dodawana
+        // przy każdej klatce - to jedna operacja na klatkę, niezależnie od liczby twarzy
+        mOverlay.add(mGraphic);
+    }
+
+    @Override
+    public void release() {
+        mGraphic.beginFrame();
+        mGraphic.swapFrame();
+        mOverlay.remove(mGraphic);
+    }
+}
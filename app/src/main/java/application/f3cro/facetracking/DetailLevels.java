@@ -0,0 +1,66 @@
+package application.f3cro.facetracking;
+
+import java.util.Arrays;
+
+/**
+ * Reguły poziomu szczegółowości nakładki. Pełne podpisy dostaje tylko kilka twarzy o najwyższym
+ * priorytecie (największych lub najbliżej środka kadru), kolejne są rysowane jako same ramki,
+ * a pozostałe jako punkty.
+ */
+final class DetailLevels {
+    static final int LEVEL_FULL = 0;
+    static final int LEVEL_BOX = 1;
+    static final int LEVEL_DOT = 2;
+
+    static final int MAX_FULL_FACES = 3;
+    static final int MAX_BOX_FACES = 10;
+
+    private float[] mSorted = new float[0];
+
+    /**
+     * Priorytet twarzy: udział w powierzchni widoku, ważony odległością od środka widoku.
+     */
+    static float score(float centerX, float centerY, float width, float height,
+                       int viewWidth, int viewHeight) {
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            return 0;
+        }
+        float area = (width * height) / ((float) viewWidth * viewHeight);
+        float dx = (centerX - viewWidth / 2.0f) / viewWidth;
+        float dy = (centerY - viewHeight / 2.0f) / viewHeight;
+        // 1 w środku, 0 w rogu widoku
+        float centrality = 1.0f - (float) Math.sqrt(2 * (dx * dx + dy * dy));
+        return area * (0.5f + Math.max(centrality, 0));
+    }
+
+    /**
+     * Wyznacza poziom szczegółowości dla pierwszych {@code count} priorytetów. Ujemny priorytet oznacza
+     * grafikę spoza rankingu, która zawsze dostaje pełny poziom. Przy remisach na granicy pełny poziom
+     * może dostać kilka twarzy więcej.
+     */
+    void assign(float[] scores, int count, int[] outLevels) {
+        if (mSorted.length < count) {
+            mSorted = new float[Math.max(count, mSorted.length * 2)];
+        }
+        System.arraycopy(scores, 0, mSorted, 0, count);
+        Arrays.sort(mSorted, 0, count);
+
+        // Ujemne priorytety trafiają po sortowaniu na początek i nie zajmują miejsc w rankingu
+        int ranked = 0;
+        while (ranked < count && mSorted[count - 1 - ranked] >= 0) {
+            ranked++;
+        }
+        float fullThreshold = ranked > MAX_FULL_FACES ? mSorted[count - MAX_FULL_FACES] : 0;
+        float boxThreshold = ranked > MAX_BOX_FACES ? mSorted[count - MAX_BOX_FACES] : 0;
+
+        for (int i = 0; i < count; i++) {
+            if (scores[i] < 0 || scores[i] >= fullThreshold) {
+                outLevels[i] = LEVEL_FULL;
+            } else if (scores[i] >= boxThreshold) {
+                outLevels[i] = LEVEL_BOX;
+            } else {
+                outLevels[i] = LEVEL_DOT;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package application.f3cro.facetracking;
+
+import android.util.SparseIntArray;
+
+/**
+ * Numer i kolor, pod którymi twarz jest pokazywana na nakładce, dla każdego numeru detektora. Po
+ * ponownym rozpoznaniu osoby ({@link FaceReidCache}) pokazywany numer różni się od numeru nadanego
+ * przez detektor, dlatego zrzuty i strumień twarzy odczytują go stąd, aby podpisywać twarze tak jak
+ * nakładka.
+ *
+ * Zapisywana przez trackery twarzy, odczytywana z innych wątków - wszystkie metody są synchronizowane.
+ * Twarze bez wpisu (np. w trybie tłumu, bez trackerów) zachowują numer detektora i kolor wynikający
+ * z tego numeru.
+ */
+class DisplayedFaceIds {
+    private final SparseIntArray mIds = new SparseIntArray();
+    private final SparseIntArray mColors = new SparseIntArray();
+
+    synchronized void put(int detectorId, int faceId, int color) {
+        mIds.put(detectorId, faceId);
+        mColors.put(detectorId, color);
+    }
+
+    synchronized void remove(int detectorId) {
+        mIds.delete(detectorId);
+        mColors.delete(detectorId);
+    }
+
+    synchronized int getId(int detectorId) {
+        return mIds.get(detectorId, detectorId);
+    }
+
+    synchronized int getColor(int detectorId) {
+        int index = mColors.indexOfKey(detectorId);
+        return index >= 0 ? mColors.valueAt(index) : defaultColor(detectorId);
+    }
+
+    /**
+     * Kolor twarzy bez wpisu, taki sam jak w trybie tłumu.
+     */
+    static int defaultColor(int faceId) {
+        return FaceModel.COLOR_CHOICES[(faceId & Integer.MAX_VALUE) % FaceModel.COLOR_CHOICES.length];
+    }
+}
@@ -0,0 +1,192 @@
+package application.f3cro.facetracking;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zbiera statystyki zaangażowania ({@link TrackEngagement}) zakończonych ścieżek twarzy, łączy je
+ * w podsumowanie sesji i okresowo dopisuje partiami do pliku JSON Lines (jedna linia na ścieżkę oraz
+ * linia z podsumowaniem sesji).
+ *
+ * Wątek detektora jedynie przekazuje gotowe liczniki do ograniczonej kolejki; formatowanie i zapis
+ * odbywają się na osobnym wątku eksportu. Gdy kolejka jest pełna, najnowsze ścieżki są pomijane
+ * w eksporcie (nadal wliczają się do podsumowania sesji).
+ */
+class EngagementAggregator {
+    private static final String TAG = "EngagementAggregator";
+
+    static final long DEFAULT_EXPORT_INTERVAL_S = 30;
+    private static final int MAX_PENDING_TRACKS = 256;
+
+    private final File mOutput;
+    private final long mSessionId = System.currentTimeMillis();
+    private final BlockingQueue<TrackEngagement> mPending = new ArrayBlockingQueue<>(MAX_PENDING_TRACKS);
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    // Podsumowanie sesji, chronione przez mLock
+    private final Object mLock = new Object();
+    private int mTracks;
+    private int mDroppedTracks;
+    private long mDwellMillis;
+    private int mFrames;
+    private int mSmilingFrames;
+    private int mBlinks;
+    private final long[] mPoseMillis = new long[FaceModel.POSE_BUCKET_COUNT];
+    private boolean mSessionChanged;
+
+    private final Runnable mExportTask = new Runnable() {
+        @Override
+        public void run() {
+            export();
+        }
+    };
+
+    EngagementAggregator(File output) {
+        mOutput = output;
+    }
+
+    void start() {
+        start(DEFAULT_EXPORT_INTERVAL_S);
+    }
+
+    void start(long exportIntervalSeconds) {
+        mExecutor.scheduleWithFixedDelay(mExportTask, exportIntervalSeconds, exportIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Zapisuje ostatnią partię i kończy wątek eksportu. Nie blokuje wywołującego.
+     */
+    void stop() {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        mExecutor.execute(mExportTask);
+        mExecutor.shutdown();
+    }
+
+    TrackEngagement startTrack(int faceId, long now) {
+        return new TrackEngagement(faceId, now);
+    }
+
+    /**
+     * Przyjmuje zakończoną ścieżkę. Po tym wywołaniu {@code track} nie może być już modyfikowana.
+     */
+    void endTrack(TrackEngagement track) {
+        if (track == null || track.frames == 0) {
+            return;
+        }
+
+        synchronized (mLock) {
+            mTracks++;
+            mDwellMillis += track.dwellMillis();
+            mFrames += track.frames;
+            mSmilingFrames += track.smilingFrames;
+            mBlinks += track.blinks;
+            for (int i = 0; i < mPoseMillis.length; i++) {
+                mPoseMillis[i] += track.poseMillis[i];
+            }
+            mSessionChanged = true;
+
+            if (!mPending.offer(track)) {
+                mDroppedTracks++;
+            }
+        }
+    }
+
+    private void export() {
+        List<TrackEngagement> tracks = new ArrayList<>();
+        mPending.drainTo(tracks);
+
+        JSONObject session = null;
+        try {
+            synchronized (mLock) {
+                if (mSessionChanged) {
+                    session = sessionToJson();
+                    mSessionChanged = false;
+                }
+            }
+            if (tracks.isEmpty() && session == null) {
+                return;
+            }
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(mOutput, true), "UTF-8"));
+            try {
+                for (TrackEngagement track : tracks) {
+                    writer.write(trackToJson(track).toString());
+                    writer.write('\n');
+                }
+                if (session != null) {
+                    writer.write(session.toString());
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Nie udało się zapisać statystyk zaangażowania.", e);
+        }
+    }
+
+    private JSONObject trackToJson(TrackEngagement track) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("type", "track");
+        json.put("session", mSessionId);
+        json.put("faceId", track.faceId);
+        json.put("dwellMs", track.dwellMillis());
+        json.put("frames", track.frames);
+        json.put("smileRatio", ratio(track.smilingFrames, track.frames));
+        json.put("blinks", track.blinks);
+        json.put("blinksPerMinute", perMinute(track.blinks, track.dwellMillis()));
+        json.put("poseMs", poseToJson(track.poseMillis));
+        return json;
+    }
+
+    private JSONObject sessionToJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("type", "session");
+        json.put("session", mSessionId);
+        json.put("tracks", mTracks);
+        json.put("droppedTracks", mDroppedTracks);
+        json.put("dwellMs", mDwellMillis);
+        json.put("averageDwellMs", mTracks > 0 ? mDwellMillis / mTracks : 0);
+        json.put("smileRatio", ratio(mSmilingFrames, mFrames));
+        json.put("blinks", mBlinks);
+        json.put("blinksPerMinute", perMinute(mBlinks, mDwellMillis));
+        json.put("poseMs", poseToJson(mPoseMillis));
+        return json;
+    }
+
+    private static JSONObject poseToJson(long[] poseMillis) throws JSONException {
+        JSONObject json = new JSONObject();
+        for (int i = 0; i < poseMillis.length; i++) {
+            json.put(FaceModel.POSE_LABELS[i], poseMillis[i]);
+        }
+        return json;
+    }
+
+    private static double ratio(int part, int total) {
+        return total > 0 ? (double) part / total : 0;
+    }
+
+    private static double perMinute(int count, long millis) {
+        return millis > 0 ? count * 60000.0 / millis : 0;
+    }
+}
@@ -9,6 +9,9 @@ import android.widget.ScrollView;
 import android.widget.TextView;
 
 import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.Landmark;
+
+import java.util.List;
 
 /**
  * Instancja graficzna do renderowania położenia twarzy, orientacji i punktów orientacyjnych w powiązanym obiekcie
@@ -20,11 +23,36 @@ class FaceModel extends GraphicDraw.Graphic {
     private static final float ID_Y_OFFSET = 50.0f;
     private static final float ID_X_OFFSET = -50.0f;
     private static final float BOX_STROKE_WIDTH = 5.0f;
+    private static final String SMILING_LABEL_PREFIX = "Prawdopodobieństwo wystąpienia uśmiechu: ";
+
+    static final double SMILING_PROB_THRESHOLD = .15;
+    static final double EYE_OPEN_PROB_THRESHOLD = .5;
 
-    private static final double SMILING_PROB_THRESHOLD = .15;
-    private static final double EYE_OPEN_PROB_THRESHOLD = .5;
+    // Kierunki odchylenia twarzy, indeksy w POSE_LABELS
+    static final int POSE_FORWARD = 0;
+    static final int POSE_NONE = 1;
+    static final int POSE_SLIGHTLY_UP = 2;
+    static final int POSE_SLIGHTLY_TILTED_RIGHT = 3;
+    static final int POSE_UP = 4;
+    static final int POSE_TILTED_RIGHT = 5;
+    static final int POSE_RIGHT = 6;
+    static final int POSE_SLIGHTLY_TILTED_LEFT = 7;
+    static final int POSE_TILTED_LEFT = 8;
+    static final int POSE_BUCKET_COUNT = 9;
+
+    static final String POSE_LABELS[] = {
+        "Twarz skierowana przed siebie",
+        "Brak odchylenia",
+        "Twarz skierowana lekko w górę",
+        "Twarz lekko przechylona w prawo",
+        "Twarz skierowana w górę",
+        "Twarz przechylona w prawo",
+        "Twarz skierowana w prawo",
+        "Twarz przechylona lekko w lewo",
+        "Twarz przechylona w lewo"
+    };
 
-    private static final int COLOR_CHOICES[] = {
+    static final int COLOR_CHOICES[] = {
         Color.BLUE,
         Color.CYAN,
         Color.GREEN,
@@ -41,33 +69,63 @@ class FaceModel extends GraphicDraw.Graphic {
 
     private volatile Face mFace;
     private int mFaceId;
+    private int mColor;
     private Context mContext;
 
+    // Teksty podpisów i ich klucze w LabelCache, odbudowywane tylko przy zmianie wartości
+    private int mLabelFaceId = -1;
+    private int mLabelColor;
+    private String mIdLabel;
+    private String mIdLabelKey;
+    // Stała część podpisu uśmiechu jest w LabelCache, zmienna wartość rysowana jest przez drawText
+    private String mSmilingPrefixKey;
+    private float mSmilingPrefixWidth;
+    private int mLabelSmiling = Integer.MIN_VALUE;
+    private String mSmilingValue;
+    private int mPoseBucket = -1;
+    private String mPredictionLabel;
+    private String mPredictionLabelKey;
+
     FaceModel(GraphicDraw overlay, Context context) {
         super(overlay);
 
         mContext=context;
         mCurrentColorIndex = (mCurrentColorIndex + 1) % COLOR_CHOICES.length;
-        final int selectedColor = COLOR_CHOICES[mCurrentColorIndex];
 
         mFacePositionPaint = new Paint();
-        mFacePositionPaint.setColor(selectedColor);
 
         mIdPaint = new Paint();
-        mIdPaint.setColor(selectedColor);
         mIdPaint.setTextSize(ID_TEXT_SIZE);
 
         mBoxPaint = new Paint();
-        mBoxPaint.setColor(selectedColor);
         mBoxPaint.setStyle(Paint.Style.STROKE);
         mBoxPaint.setStrokeWidth(BOX_STROKE_WIDTH);
 
+        setColor(COLOR_CHOICES[mCurrentColorIndex]);
     }
 
     void setId(int id) {
         mFaceId = id;
     }
 
+    int getId() {
+        return mFaceId;
+    }
+
+    /**
+     * Ustawia kolor adnotacji, np. przy przywróceniu koloru ponownie rozpoznanej twarzy.
+     */
+    void setColor(int color) {
+        mColor = color;
+        mFacePositionPaint.setColor(color);
+        mIdPaint.setColor(color);
+        mBoxPaint.setColor(color);
+    }
+
+    int getColor() {
+        return mColor;
+    }
+
 
     /**
      * Aktualizuje instancję twarzy po wykryciu najnowszej ramki. Unieważnia atrybut
@@ -80,7 +138,24 @@ class FaceModel extends GraphicDraw.Graphic {
 
 
     /**
-     * Rysuje adnotacje twarzy dla pozycji na widoku.
+     * Priorytet twarzy do wyboru poziomu szczegółowości - większe i bliższe środka twarze wygrywają.
+     */
+    @Override
+    public float getDetailScore(int viewWidth, int viewHeight) {
+        Face face = mFace;
+        if (face == null) {
+            return 0;
+        }
+        return DetailLevels.score(
+                translateX(face.getPosition().x + face.getWidth() / 2),
+                translateY(face.getPosition().y + face.getHeight() / 2),
+                scaleX(face.getWidth()), scaleY(face.getHeight()),
+                viewWidth, viewHeight);
+    }
+
+    /**
+     * Rysuje adnotacje twarzy dla pozycji na widoku. Zakres adnotacji zależy od poziomu szczegółowości:
+     * pełne podpisy, sama obwiednia albo tylko punkt w miejscu twarzy.
      */
     @Override
     public void draw(Canvas canvas) {
@@ -94,11 +169,23 @@ class FaceModel extends GraphicDraw.Graphic {
         float y = translateY(face.getPosition().y + face.getHeight() / 2);
 
         canvas.drawCircle(x, y, FACE_POSITION_RADIUS, mFacePositionPaint);
-        canvas.drawText("Numer: " + mFaceId, x + ID_X_OFFSET, y + ID_Y_OFFSET, mIdPaint);
-        canvas.drawText("Prawdopodobieństwo wystąpienia uśmiechu: " + String.format("%.2f", face.getIsSmilingProbability()), x - ID_X_OFFSET, y - ID_Y_OFFSET, mIdPaint);
+        addLandmarks(face);
+
+        int level = getDetailLevel();
+        if (level == DetailLevels.LEVEL_DOT) {
+            return;
+        }
+
+        if (level == DetailLevels.LEVEL_FULL) {
+            updateLabels(face);
+            LabelCache labels = getLabelCache();
+            labels.drawText(canvas, mIdLabelKey, mIdLabel, x + ID_X_OFFSET, y + ID_Y_OFFSET, mIdPaint);
+            labels.drawText(canvas, mSmilingPrefixKey, SMILING_LABEL_PREFIX, x - ID_X_OFFSET, y - ID_Y_OFFSET, mIdPaint);
+            canvas.drawText(mSmilingValue, x - ID_X_OFFSET + mSmilingPrefixWidth, y - ID_Y_OFFSET, mIdPaint);
+            labels.drawText(canvas, mPredictionLabelKey, mPredictionLabel,
+                    x - ID_X_OFFSET, y - ID_Y_OFFSET + 3 * ID_TEXT_SIZE, mIdPaint);
+        }
 
-        String prediction = getPrediction(face.getEulerY(),face.getEulerZ());
-        canvas.drawText("Kierunek odchylenia twarzy: "+prediction,x-ID_X_OFFSET,y-ID_Y_OFFSET+3*ID_TEXT_SIZE,mIdPaint);
         // Rysuje obwiednię wokół twarzy
         float xOffset = scaleX(face.getWidth() / 2.0f);
         float yOffset = scaleY(face.getHeight() / 2.0f);
@@ -119,43 +206,104 @@ class FaceModel extends GraphicDraw.Graphic {
 
     }
 
-    private String getPrediction(float eulerY, float eulerZ) {
-        String feature="";
+    /**
+     * Dodaje punkty charakterystyczne twarzy (jeśli detektor je zwraca) do wspólnego bufora nakładki.
+     */
+    private void addLandmarks(Face face) {
+        List<Landmark> landmarks = face.getLandmarks();
+        if (landmarks == null || landmarks.isEmpty()) {
+            return;
+        }
+
+        LandmarkBatch batch = getLandmarkBatch();
+        batch.beginFace();
+        for (int i = 0; i < landmarks.size(); i++) {
+            Landmark landmark = landmarks.get(i);
+            batch.addLandmark(landmark.getType(),
+                    translateX(landmark.getPosition().x), translateY(landmark.getPosition().y));
+        }
+        batch.endFace();
+    }
+
+    /**
+     * Odbudowuje teksty podpisów, których wartość zmieniła się od poprzedniej klatki.
+     */
+    private void updateLabels(Face face) {
+        boolean colorChanged = mLabelColor != mColor || mIdLabel == null;
+        mLabelColor = mColor;
+
+        if (colorChanged || mLabelFaceId != mFaceId) {
+            mLabelFaceId = mFaceId;
+            mIdLabel = "Numer: " + mFaceId;
+            mIdLabelKey = LabelCache.key(mIdLabel, mIdPaint);
+        }
+
+        if (colorChanged) {
+            mSmilingPrefixKey = LabelCache.key(SMILING_LABEL_PREFIX, mIdPaint);
+            mSmilingPrefixWidth = mIdPaint.measureText(SMILING_LABEL_PREFIX);
+        }
+
+        int smiling = Math.round(face.getIsSmilingProbability() * 100);
+        if (mLabelSmiling != smiling) {
+            mLabelSmiling = smiling;
+            mSmilingValue = String.format("%.2f", face.getIsSmilingProbability());
+        }
+
+        int poseBucket = getPoseBucket(face.getEulerY(), face.getEulerZ());
+        if (colorChanged || mPoseBucket != poseBucket) {
+            mPoseBucket = poseBucket;
+            mPredictionLabel = "Kierunek odchylenia twarzy: " + POSE_LABELS[poseBucket];
+            mPredictionLabelKey = LabelCache.key(mPredictionLabel, mIdPaint);
+        }
+    }
+
+    /**
+     * Etykieta kierunku odchylenia twarzy.
+     */
+    static String getPrediction(float eulerY, float eulerZ) {
+        return POSE_LABELS[getPoseBucket(eulerY, eulerZ)];
+    }
+
+    /**
+     * Klasyfikuje kąty Eulera do jednego z {@link #POSE_BUCKET_COUNT} kierunków odchylenia twarzy.
+     */
+    static int getPoseBucket(float eulerY, float eulerZ) {
+        int feature;
         if(eulerZ<5f && eulerZ >=0f){
             if(eulerY>0f && eulerY<60f){
-                feature="Twarz skierowana przed siebie";
+                feature=POSE_FORWARD;
             }else{
-                feature="Brak odchylenia";
+                feature=POSE_NONE;
             }
         }else if(eulerZ>5f && eulerZ<45f){
             if(eulerY>0f && eulerY<=60f){
-                feature="Twarz skierowana lekko w górę";
+                feature=POSE_SLIGHTLY_UP;
             }else {
-                feature="Twarz lekko przechylona w prawo";
+                feature=POSE_SLIGHTLY_TILTED_RIGHT;
             }
         }else if(eulerZ>45f){
             if(eulerY>60f && eulerY!=0){
-                feature="Twarz skierowana w górę";
+                feature=POSE_UP;
             }else{
-                feature="Twarz przechylona w prawo";
+                feature=POSE_TILTED_RIGHT;
             }
         }else if(eulerZ<0f && eulerZ >-5f){
             if(eulerY>-60f && eulerY!=0){
-                feature="Twarz skierowana w prawo";
+                feature=POSE_RIGHT;
             }else{
-                feature="Brak odchylenia";
+                feature=POSE_NONE;
             }
         }else if(eulerZ<-5f && eulerZ>-45f){
             if(eulerY>-60f && eulerY!=0){
-                feature="Twarz skierowana w górę";
+                feature=POSE_UP;
             }else{
-                feature="Twarz przechylona lekko w lewo";
+                feature=POSE_SLIGHTLY_TILTED_LEFT;
             }
         }else{
             if(eulerY>-6f && eulerY!=0){
-                feature="Twarz skierowana w górę";
+                feature=POSE_UP;
             }else{
-                feature="Twarz przechylona w lewo";
+                feature=POSE_TILTED_LEFT;
             }
         }
 
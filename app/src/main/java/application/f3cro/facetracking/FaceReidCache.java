@@ -0,0 +1,213 @@
+package application.f3cro.facetracking;
+
+import com.google.android.gms.vision.face.Face;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pamięć podręczna ostatnio utraconych ścieżek twarzy. Gdy osoba odwróci się lub zostanie na chwilę
+ * zasłonięta, detektor kończy jej ścieżkę i po powrocie nadaje nowy identyfikator. Ta klasa
+ * zapamiętuje lekką sygnaturę geometryczną (położenie, rozmiar i kąty Eulera) każdej utraconej twarzy,
+ * aby nowa ścieżka mogła przejąć pierwotny numer i kolor.
+ *
+ * Sygnatura nie zawiera cech wyglądu - prawdopodobieństwa uśmiechu i otwarcia oczu opisują wyraz
+ * twarzy, a nie osobę, więc nie pomagają odróżnić dwóch osób stojących blisko siebie. Dopasowanie
+ * opiera się na tym, że osoba wraca mniej więcej w to samo miejsce kadru w ciągu {@code ttlMillis}.
+ *
+ * Wpisy są usuwane po czasie {@code ttlMillis} lub gdy liczba wpisów przekroczy {@code capacity}
+ * (najstarszy wpis wypada pierwszy), więc zużycie pamięci jest ograniczone z góry. Porównanie z
+ * jednym kandydatem ma stały koszt.
+ *
+ * Wpis przenosi też niezakończone statystyki zaangażowania ścieżki, aby po ponownym rozpoznaniu
+ * osoba miała jeden rekord. Wpisy, które wygasły bez dopasowania, trafiają do
+ * {@link EvictionListener} przy najbliższym użyciu pamięci lub w {@link #clear()}.
+ */
+class FaceReidCache {
+    static final int DEFAULT_CAPACITY = 16;
+    static final long DEFAULT_TTL_MS = 3000;
+
+    // Maksymalna odległość środków wyrażona w szerokościach twarzy
+    private static final float MAX_CENTER_DISTANCE = 1.5f;
+    // Dopuszczalny stosunek rozmiarów starej i nowej twarzy
+    private static final float MAX_SIZE_RATIO = 1.6f;
+    // Maksymalny wynik dopasowania, powyżej którego kandydat jest odrzucany
+    private static final float MAX_MATCH_SCORE = 1.0f;
+
+    private static final float SIZE_WEIGHT = 0.5f;
+    private static final float POSE_WEIGHT = 0.3f;
+    private static final float MAX_EULER_ANGLE = 90.0f;
+
+    /**
+     * Powiadamiany o wpisach usuniętych bez dopasowania (wygasłych, wypartych lub wyczyszczonych).
+     * Wołany pod blokadą pamięci.
+     */
+    interface EvictionListener {
+        void onEvicted(LostFace face);
+    }
+
+    /**
+     * Sygnatura utraconej ścieżki: pierwotny numer i kolor oraz ostatnie znane położenie twarzy.
+     */
+    static final class LostFace {
+        final int faceId;
+        final int color;
+        final long lostAt;
+        // Statystyki ścieżki do wznowienia po dopasowaniu; może być null
+        final TrackEngagement engagement;
+
+        private final float mCenterX;
+        private final float mCenterY;
+        private final float mWidth;
+        private final float mHeight;
+        private final float mEulerY;
+        private final float mEulerZ;
+
+        LostFace(int faceId, int color, Face face, long lostAt, TrackEngagement engagement) {
+            this.faceId = faceId;
+            this.color = color;
+            this.lostAt = lostAt;
+            this.engagement = engagement;
+            mWidth = face.getWidth();
+            mHeight = face.getHeight();
+            mCenterX = face.getPosition().x + mWidth / 2;
+            mCenterY = face.getPosition().y + mHeight / 2;
+            mEulerY = face.getEulerY();
+            mEulerZ = face.getEulerZ();
+        }
+
+        /**
+         * Zwraca wynik podobieństwa do podanej twarzy (im mniej, tym lepiej) albo
+         * {@link Float#MAX_VALUE}, jeśli twarz nie przechodzi bramki geometrycznej.
+         */
+        float score(Face face) {
+            float width = face.getWidth();
+            float height = face.getHeight();
+            if (width <= 0 || height <= 0 || mWidth <= 0 || mHeight <= 0) {
+                return Float.MAX_VALUE;
+            }
+
+            float sizeRatio = width > mWidth ? width / mWidth : mWidth / width;
+            if (sizeRatio > MAX_SIZE_RATIO) {
+                return Float.MAX_VALUE;
+            }
+
+            float size = (width + mWidth) / 2;
+            float dx = (face.getPosition().x + width / 2 - mCenterX) / size;
+            float dy = (face.getPosition().y + height / 2 - mCenterY) / size;
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+            if (distance > MAX_CENTER_DISTANCE) {
+                return Float.MAX_VALUE;
+            }
+
+            float score = distance / MAX_CENTER_DISTANCE;
+            score += SIZE_WEIGHT * (sizeRatio - 1.0f) / (MAX_SIZE_RATIO - 1.0f);
+            score += POSE_WEIGHT * (Math.abs(face.getEulerY() - mEulerY)
+                    + Math.abs(face.getEulerZ() - mEulerZ)) / (2 * MAX_EULER_ANGLE);
+            return score;
+        }
+    }
+
+    private final int mCapacity;
+    private final long mTtlMillis;
+    private EvictionListener mEvictionListener;
+
+    // Kolejność wstawiania odpowiada kolejności utraty ścieżek, więc najstarszy wpis jest na początku
+    private final LinkedHashMap<Integer, LostFace> mLostFaces;
+
+    FaceReidCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MS);
+    }
+
+    FaceReidCache(final int capacity, long ttlMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Pojemność musi być dodatnia: " + capacity);
+        }
+        mCapacity = capacity;
+        mTtlMillis = ttlMillis;
+        mLostFaces = new LinkedHashMap<Integer, LostFace>(capacity + 1, 1.0f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, LostFace> eldest) {
+                if (size() <= mCapacity) {
+                    return false;
+                }
+                evicted(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    synchronized void setEvictionListener(EvictionListener listener) {
+        mEvictionListener = listener;
+    }
+
+    /**
+     * Zapamiętuje ścieżkę, która właśnie została zakończona.
+     *
+     * @param engagement niezakończone statystyki ścieżki lub {@code null}
+     * @return {@code false}, jeśli ścieżka nie może zostać zapamiętana (brak ostatniej twarzy)
+     */
+    synchronized boolean put(int faceId, int color, Face lastFace, long now, TrackEngagement engagement) {
+        if (lastFace == null) {
+            return false;
+        }
+        evictExpired(now);
+        LostFace previous = mLostFaces.remove(faceId);
+        if (previous != null) {
+            evicted(previous);
+        }
+        mLostFaces.put(faceId, new LostFace(faceId, color, lastFace, now, engagement));
+        return true;
+    }
+
+    /**
+     * Szuka utraconej ścieżki najbardziej podobnej do nowej twarzy. Dopasowany wpis jest usuwany
+     * z pamięci, aby dwie nowe ścieżki nie przejęły tego samego numeru.
+     *
+     * @return dopasowany wpis lub {@code null}, jeśli żaden kandydat nie jest wystarczająco podobny
+     */
+    synchronized LostFace match(Face face, long now) {
+        evictExpired(now);
+
+        LostFace best = null;
+        float bestScore = MAX_MATCH_SCORE;
+        for (LostFace entry : mLostFaces.values()) {
+            float score = entry.score(face);
+            if (score < bestScore) {
+                bestScore = score;
+                best = entry;
+            }
+        }
+
+        if (best != null) {
+            mLostFaces.remove(best.faceId);
+        }
+        return best;
+    }
+
+    synchronized void clear() {
+        for (LostFace face : mLostFaces.values()) {
+            evicted(face);
+        }
+        mLostFaces.clear();
+    }
+
+    private void evicted(LostFace face) {
+        if (mEvictionListener != null) {
+            mEvictionListener.onEvicted(face);
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<LostFace> it = mLostFaces.values().iterator();
+        while (it.hasNext()) {
+            LostFace face = it.next();
+            if (now - face.lostAt <= mTtlMillis) {
+                break;
+            }
+            it.remove();
+            evicted(face);
+        }
+    }
+}
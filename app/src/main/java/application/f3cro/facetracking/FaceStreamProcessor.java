@@ -0,0 +1,84 @@
+package application.f3cro.facetracking;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.face.Face;
+
+/**
+ * Procesor pośredniczący: przekazuje wykrycia dalej (do {@code MultiProcessor} lub
+ * {@link CrowdFaceProcessor}), a następnie publikuje tabelę twarzy klatki przez {@link FaceStreamServer}.
+ *
+ * Twarze publikowane są pod numerami pokazywanymi na nakładce ({@link DisplayedFaceIds}), więc osoba
+ * ponownie rozpoznana po zasłonięciu zachowuje numer także w strumieniu.
+ */
+class FaceStreamProcessor implements Detector.Processor<Face> {
+    private final Detector.Processor<Face> mDelegate;
+    private final FaceStreamServer mServer;
+    private final DisplayedFaceIds mDisplayedIds;
+    // Tabela używana ponownie w każdej klatce - serwer koduje ją od razu w publish()
+    private final FaceTable mTable = new FaceTable();
+    // Pokazywane numery twarzy klatki i kolejność wierszy według nich, używane ponownie
+    private int[] mIds = new int[16];
+    private int[] mOrder = new int[16];
+
+    FaceStreamProcessor(Detector.Processor<Face> delegate, FaceStreamServer server,
+                        DisplayedFaceIds displayedIds) {
+        mDelegate = delegate;
+        mServer = server;
+        mDisplayedIds = displayedIds;
+    }
+
+    @Override
+    public void receiveDetections(Detector.Detections<Face> detections) {
+        mDelegate.receiveDetections(detections);
+
+        SparseArray<Face> faces = detections.getDetectedItems();
+        sortByDisplayedId(faces);
+
+        mTable.clear();
+        int previousId = 0;
+        for (int k = 0; k < faces.size(); k++) {
+            int i = mOrder[k];
+            if (mTable.size > 0 && mIds[i] == previousId) {
+                // Dwie twarze pod tym samym numerem - publikujemy tylko pierwszą
+                continue;
+            }
+            previousId = mIds[i];
+            Face face = faces.valueAt(i);
+            mTable.add(mIds[i],
+                    face.getPosition().x, face.getPosition().y,
+                    face.getWidth(), face.getHeight(),
+                    face.getEulerY(), face.getEulerZ(),
+                    face.getIsSmilingProbability());
+        }
+        mServer.publish(mTable, detections.getFrameMetadata().getTimestampMillis());
+    }
+
+    /**
+     * Wyznacza pokazywane numery twarzy i kolejność wierszy rosnąco według nich, jak wymaga
+     * {@link FaceTable}. Twarzy w klatce jest niewiele, więc wystarcza sortowanie przez wstawianie.
+     */
+    private void sortByDisplayedId(SparseArray<Face> faces) {
+        int count = faces.size();
+        if (mIds.length < count) {
+            mIds = new int[count * 2];
+            mOrder = new int[count * 2];
+        }
+
+        for (int i = 0; i < count; i++) {
+            mIds[i] = mDisplayedIds.getId(faces.keyAt(i));
+            int j = i;
+            while (j > 0 && mIds[mOrder[j - 1]] > mIds[i]) {
+                mOrder[j] = mOrder[j - 1];
+                j--;
+            }
+            mOrder[j] = i;
+        }
+    }
+
+    @Override
+    public void release() {
+        mDelegate.release();
+    }
+}
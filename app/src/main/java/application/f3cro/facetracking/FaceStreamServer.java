@@ -0,0 +1,329 @@
+package application.f3cro.facetracking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Lokalny serwer (tylko adres pętli zwrotnej), który rozsyła tabelę twarzy każdej klatki do innych
+ * procesów, np. odtwarzacza treści na kiosku. Oparty o NIO - jeden wątek obsługuje wszystkich
+ * subskrybentów bez blokowania.
+ *
+ * Wolni klienci nie powodują narastania kolejek: klient dostaje zawsze najnowszą klatkę, a klatki
+ * opublikowane w trakcie wysyłania poprzedniej są pomijane. Na klienta przypada co najwyżej jedna
+ * wysyłana klatka.
+ *
+ * Format klatki (big-endian):
+ * <pre>
+ * int   length     liczba bajtów po tym polu
+ * int   magic      {@link #MAGIC}
+ * short version    {@link #VERSION}
+ * short faceCount
+ * long  sequence   numer klatki, rosnący
+ * long  timestamp  znacznik czasu klatki (ms)
+ * faceCount razy:
+ *   int id, float left, float top, float width, float height, float eulerY, float eulerZ, float smiling
+ * </pre>
+ *
+ * Klasa nie zależy od Androida, więc można ją uruchomić i sprawdzić lokalnym klientem na zwykłej JVM.
+ */
+class FaceStreamServer implements Closeable {
+    static final int MAGIC = 0x46414345;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 4 + 4 + 2 + 2 + 8 + 8;
+    static final int FACE_SIZE = 4 + 7 * 4;
+    static final int MAX_FACES = Short.MAX_VALUE;
+    static final int DEFAULT_MAX_CLIENTS = 32;
+    // Mały bufor nadawczy gniazda, aby nieaktualne klatki nie gromadziły się w jądrze systemu
+    private static final int SEND_BUFFER_SIZE = 16 * 1024;
+
+    private final int mPort;
+    private final int mMaxClients;
+
+    private Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    private volatile Snapshot mLatest;
+    private long mSequence;
+    private int mClientCount;
+
+    /**
+     * Niezmienna, zakodowana klatka współdzielona przez wszystkich klientów.
+     */
+    private static final class Snapshot {
+        final long sequence;
+        final byte[] data;
+
+        Snapshot(long sequence, byte[] data) {
+            this.sequence = sequence;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Stan jednego subskrybenta, używany tylko z wątku serwera.
+     */
+    private static final class Client {
+        ByteBuffer pending;
+        long sentSequence = -1;
+    }
+
+    /**
+     * @param port port na adresie 127.0.0.1; 0 wybiera wolny port (zob. {@link #getLocalPort()})
+     */
+    FaceStreamServer(int port) {
+        this(port, DEFAULT_MAX_CLIENTS);
+    }
+
+    FaceStreamServer(int port, int maxClients) {
+        mPort = port;
+        mMaxClients = maxClients;
+    }
+
+    synchronized void start() throws IOException {
+        if (mRunning) {
+            return;
+        }
+
+        mSelector = Selector.open();
+        try {
+            mServerChannel = ServerSocketChannel.open();
+            mServerChannel.configureBlocking(false);
+            mServerChannel.socket().setReuseAddress(true);
+            mServerChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), mPort));
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            // Np. port zajęty - zwalniamy to, co zdążyło się otworzyć
+            if (mServerChannel != null) {
+                try {
+                    mServerChannel.close();
+                } catch (IOException ignored) {
+                    // Zgłaszamy pierwotny błąd
+                }
+                mServerChannel = null;
+            }
+            mSelector.close();
+            mSelector = null;
+            throw e;
+        }
+
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "FaceStreamServer");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    int getLocalPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Publikuje tabelę twarzy bieżącej klatki. Wołane z wątku detektora; koduje klatkę i budzi wątek
+     * serwera, nie czekając na klientów.
+     */
+    void publish(FaceTable table, long timestampMillis) {
+        if (!mRunning) {
+            return;
+        }
+
+        int count = Math.min(table.size, MAX_FACES);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * FACE_SIZE);
+        buffer.putInt(buffer.capacity() - 4);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) count);
+        buffer.putLong(++mSequence);
+        buffer.putLong(timestampMillis);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(table.ids[i]);
+            buffer.putFloat(table.left[i]);
+            buffer.putFloat(table.top[i]);
+            buffer.putFloat(table.width[i]);
+            buffer.putFloat(table.height[i]);
+            buffer.putFloat(table.eulerY[i]);
+            buffer.putFloat(table.eulerZ[i]);
+            buffer.putFloat(table.smiling[i]);
+        }
+
+        mLatest = new Snapshot(mSequence, buffer.array());
+        mSelector.wakeup();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!mRunning) {
+                return;
+            }
+            mRunning = false;
+        }
+        mSelector.wakeup();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop() {
+        ByteBuffer discard = ByteBuffer.allocate(256);
+        long broadcastSequence = 0;
+        try {
+            while (mRunning) {
+                mSelector.select();
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    if (key.isReadable() && !drain(key, discard)) {
+                        continue;
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(key);
+                    }
+                }
+
+                // Nowa klatka - zaczynamy wysyłać ją klientom, którzy skończyli poprzednią
+                Snapshot latest = mLatest;
+                if (latest != null && latest.sequence != broadcastSequence) {
+                    broadcastSequence = latest.sequence;
+                    for (SelectionKey key : mSelector.keys()) {
+                        if (key.isValid() && key.attachment() instanceof Client
+                                && ((Client) key.attachment()).pending == null) {
+                            write(key);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            mRunning = false;
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        if (mClientCount >= mMaxClients) {
+            channel.close();
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setSendBufferSize(SEND_BUFFER_SIZE);
+        SelectionKey key = channel.register(mSelector, SelectionKey.OP_READ, new Client());
+        mClientCount++;
+        // Nowy klient od razu dostaje ostatnią znaną klatkę
+        write(key);
+    }
+
+    /**
+     * Odczytuje i pomija dane od klienta - służy tylko do wykrycia rozłączenia.
+     *
+     * @return {@code false}, jeśli klient został rozłączony
+     */
+    private boolean drain(SelectionKey key, ByteBuffer discard) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            int read;
+            do {
+                discard.clear();
+                read = channel.read(discard);
+            } while (read > 0);
+            if (read < 0) {
+                disconnect(key);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            disconnect(key);
+            return false;
+        }
+    }
+
+    /**
+     * Wysyła klientowi bieżącą klatkę; po jej zakończeniu przechodzi od razu do najnowszej, pomijając
+     * klatki pośrednie.
+     */
+    private void write(SelectionKey key) {
+        Client client = (Client) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            while (true) {
+                if (client.pending == null) {
+                    Snapshot latest = mLatest;
+                    if (latest == null || latest.sequence == client.sentSequence) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                    client.pending = ByteBuffer.wrap(latest.data);
+                    client.sentSequence = latest.sequence;
+                }
+
+                channel.write(client.pending);
+                if (client.pending.hasRemaining()) {
+                    // Bufor gniazda pełny - dokończymy, gdy klient odbierze dane
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                client.pending = null;
+            }
+        } catch (IOException e) {
+            disconnect(key);
+        }
+    }
+
+    private void disconnect(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Kanał i tak jest porzucany
+        }
+        mClientCount--;
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : mSelector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // Zamykamy pozostałe kanały
+                }
+            }
+            mSelector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            // Serwer jest już zamknięty
+        }
+        mClientCount = 0;
+    }
+}
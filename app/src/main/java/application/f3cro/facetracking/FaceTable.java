@@ -0,0 +1,142 @@
+package application.f3cro.facetracking;
+
+import java.util.Arrays;
+
+/**
+ * Tabela twarzy jednej klatki w układzie "struktura tablic": każda cecha twarzy trzymana jest w osobnej
+ * tablicy typu prostego, a wiersz {@code i} opisuje jedną twarz. Dzięki temu cała klatka mieści się
+ * w kilku ciągłych tablicach, bez obiektu na każdą twarz.
+ *
+ * Wiersze dodawane są w rosnącej kolejności numerów twarzy (tak jak zwraca je {@code SparseArray}
+ * detektora), co pozwala wyszukiwać twarz po numerze przeszukiwaniem binarnym.
+ *
+ * Klasa nie zależy od Androida, więc może być przekazywana dalej (np. do serwera strumieniującego).
+ */
+class FaceTable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    int size;
+    int[] ids;
+    // Pozycja lewego górnego rogu i rozmiar w układzie współrzędnych podglądu
+    float[] left;
+    float[] top;
+    float[] width;
+    float[] height;
+    float[] eulerY;
+    float[] eulerZ;
+    float[] smiling;
+
+    // Punkty charakterystyczne wiersza i: indeksy od landmarkStart[i] do landmarkStart[i] + landmarkCount[i]
+    int[] landmarkStart;
+    int[] landmarkCount;
+    int landmarkSize;
+    int[] landmarkTypes;
+    float[] landmarkX;
+    float[] landmarkY;
+
+    FaceTable() {
+        this(INITIAL_CAPACITY);
+    }
+
+    FaceTable(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    void clear() {
+        size = 0;
+        landmarkSize = 0;
+    }
+
+    int capacity() {
+        return ids.length;
+    }
+
+    /**
+     * Dodaje twarz na końcu tabeli i zwraca numer jej wiersza.
+     */
+    int add(int id, float left, float top, float width, float height,
+            float eulerY, float eulerZ, float smiling) {
+        if (size > 0 && ids[size - 1] >= id) {
+            throw new IllegalArgumentException("Twarze muszą być dodawane rosnąco według numeru: " + id);
+        }
+        if (size == ids.length) {
+            grow(size * 2);
+        }
+
+        int row = size++;
+        this.ids[row] = id;
+        this.left[row] = left;
+        this.top[row] = top;
+        this.width[row] = width;
+        this.height[row] = height;
+        this.eulerY[row] = eulerY;
+        this.eulerZ[row] = eulerZ;
+        this.smiling[row] = smiling;
+        this.landmarkStart[row] = landmarkSize;
+        this.landmarkCount[row] = 0;
+        return row;
+    }
+
+    /**
+     * Dodaje punkt charakterystyczny do ostatnio dodanego wiersza.
+     */
+    void addLandmark(int type, float x, float y) {
+        if (size == 0) {
+            throw new IllegalStateException("Brak wiersza, do którego można dodać punkt");
+        }
+        if (landmarkSize == landmarkTypes.length) {
+            landmarkTypes = Arrays.copyOf(landmarkTypes, landmarkSize * 2);
+            landmarkX = Arrays.copyOf(landmarkX, landmarkSize * 2);
+            landmarkY = Arrays.copyOf(landmarkY, landmarkSize * 2);
+        }
+        landmarkTypes[landmarkSize] = type;
+        landmarkX[landmarkSize] = x;
+        landmarkY[landmarkSize] = y;
+        landmarkSize++;
+        landmarkCount[size - 1]++;
+    }
+
+    /**
+     * Zwraca numer wiersza twarzy o podanym numerze lub wartość ujemną, jeśli jej nie ma w tabeli.
+     */
+    int indexOf(int id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+    float centerX(int row) {
+        return left[row] + width[row] / 2;
+    }
+
+    float centerY(int row) {
+        return top[row] + height[row] / 2;
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        left = new float[capacity];
+        top = new float[capacity];
+        width = new float[capacity];
+        height = new float[capacity];
+        eulerY = new float[capacity];
+        eulerZ = new float[capacity];
+        smiling = new float[capacity];
+        landmarkStart = new int[capacity];
+        landmarkCount = new int[capacity];
+        landmarkTypes = new int[capacity];
+        landmarkX = new float[capacity];
+        landmarkY = new float[capacity];
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        left = Arrays.copyOf(left, capacity);
+        top = Arrays.copyOf(top, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        eulerY = Arrays.copyOf(eulerY, capacity);
+        eulerZ = Arrays.copyOf(eulerZ, capacity);
+        smiling = Arrays.copyOf(smiling, capacity);
+        landmarkStart = Arrays.copyOf(landmarkStart, capacity);
+        landmarkCount = Arrays.copyOf(landmarkCount, capacity);
+    }
+}
@@ -0,0 +1,153 @@
+package application.f3cro.facetracking;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Jedna grafika rysująca wszystkie twarze klatki z {@link FaceTable}. Używana w trybie tłumu zamiast
+ * osobnego {@link FaceModel} dla każdej twarzy.
+ *
+ * Tabele są podwójnie buforowane: procesor wypełnia tabelę roboczą zwróconą przez
+ * {@link #beginFrame()}, a {@link #swapFrame()} podmienia ją z tabelą rysowaną w stałym czasie.
+ * Poziom szczegółowości (zob. {@link DetailLevels}) wyznaczany jest dla wierszy tabeli przy rysowaniu.
+ */
+class FaceTableGraphic extends GraphicDraw.Graphic {
+    private static final float FACE_POSITION_RADIUS = 10.0f;
+    private static final float ID_TEXT_SIZE = 40.0f;
+    private static final float ID_Y_OFFSET = 50.0f;
+    private static final float ID_X_OFFSET = -50.0f;
+    private static final float BOX_STROKE_WIDTH = 5.0f;
+    // Liczba zapamiętanych podpisów; miejsce w pamięci wyznacza numer twarzy
+    private static final int LABEL_SLOTS = 64;
+
+    private final Object mLock = new Object();
+    private FaceTable mFront = new FaceTable();
+    private FaceTable mBack = new FaceTable();
+
+    private final DetailLevels mDetailLevels = new DetailLevels();
+    private float[] mScores = new float[16];
+    private int[] mLevels = new int[16];
+
+    // Jeden zestaw farb na kolor, współdzielony przez wszystkie twarze
+    private final Paint[] mPositionPaints = new Paint[FaceModel.COLOR_CHOICES.length];
+    private final Paint[] mIdPaints = new Paint[FaceModel.COLOR_CHOICES.length];
+    private final Paint[] mBoxPaints = new Paint[FaceModel.COLOR_CHOICES.length];
+
+    // Podpisy "Numer: id" i ich klucze w LabelCache, budowane raz na twarz zamiast w każdej klatce
+    private final int[] mLabelIds = new int[LABEL_SLOTS];
+    private final String[] mLabels = new String[LABEL_SLOTS];
+    private final String[] mLabelKeys = new String[LABEL_SLOTS];
+
+    FaceTableGraphic(GraphicDraw overlay) {
+        super(overlay);
+
+        for (int i = 0; i < FaceModel.COLOR_CHOICES.length; i++) {
+            int color = FaceModel.COLOR_CHOICES[i];
+
+            mPositionPaints[i] = new Paint();
+            mPositionPaints[i].setColor(color);
+
+            mIdPaints[i] = new Paint();
+            mIdPaints[i].setColor(color);
+            mIdPaints[i].setTextSize(ID_TEXT_SIZE);
+
+            mBoxPaints[i] = new Paint();
+            mBoxPaints[i].setColor(color);
+            mBoxPaints[i].setStyle(Paint.Style.STROKE);
+            mBoxPaints[i].setStrokeWidth(BOX_STROKE_WIDTH);
+        }
+    }
+
+    /**
+     * Zwraca wyczyszczoną tabelę roboczą do wypełnienia twarzami nowej klatki. Wołane tylko z wątku
+     * detektora.
+     */
+    FaceTable beginFrame() {
+        mBack.clear();
+        return mBack;
+    }
+
+    /**
+     * Publikuje wypełnioną tabelę roboczą do rysowania.
+     */
+    void swapFrame() {
+        synchronized (mLock) {
+            FaceTable tmp = mFront;
+            mFront = mBack;
+            mBack = tmp;
+        }
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        synchronized (mLock) {
+            FaceTable table = mFront;
+            assignDetailLevels(table, canvas.getWidth(), canvas.getHeight());
+            LandmarkBatch landmarks = getLandmarkBatch();
+
+            for (int i = 0; i < table.size; i++) {
+                int colorIndex = colorIndex(table.ids[i]);
+
+                float x = translateX(table.centerX(i));
+                float y = translateY(table.centerY(i));
+                canvas.drawCircle(x, y, FACE_POSITION_RADIUS, mPositionPaints[colorIndex]);
+
+                if (table.landmarkCount[i] > 0) {
+                    landmarks.beginFace();
+                    int end = table.landmarkStart[i] + table.landmarkCount[i];
+                    for (int j = table.landmarkStart[i]; j < end; j++) {
+                        landmarks.addLandmark(table.landmarkTypes[j],
+                                translateX(table.landmarkX[j]), translateY(table.landmarkY[j]));
+                    }
+                    landmarks.endFace();
+                }
+                if (mLevels[i] == DetailLevels.LEVEL_DOT) {
+                    continue;
+                }
+
+                if (mLevels[i] == DetailLevels.LEVEL_FULL) {
+                    Paint idPaint = mIdPaints[colorIndex];
+                    int slot = labelSlot(table.ids[i], idPaint);
+                    getLabelCache().drawText(canvas, mLabelKeys[slot], mLabels[slot],
+                            x + ID_X_OFFSET, y + ID_Y_OFFSET, idPaint);
+                }
+
+                float xOffset = scaleX(table.width[i] / 2.0f);
+                float yOffset = scaleY(table.height[i] / 2.0f);
+                canvas.drawRect(x - xOffset, y - yOffset, x + xOffset, y + yOffset,
+                        mBoxPaints[colorIndex]);
+            }
+        }
+    }
+
+    private void assignDetailLevels(FaceTable table, int viewWidth, int viewHeight) {
+        if (mScores.length < table.size) {
+            mScores = new float[table.capacity()];
+            mLevels = new int[table.capacity()];
+        }
+        for (int i = 0; i < table.size; i++) {
+            mScores[i] = DetailLevels.score(
+                    translateX(table.centerX(i)), translateY(table.centerY(i)),
+                    scaleX(table.width[i]), scaleY(table.height[i]),
+                    viewWidth, viewHeight);
+        }
+        mDetailLevels.assign(mScores, table.size, mLevels);
+    }
+
+    /**
+     * Zwraca miejsce z podpisem danej twarzy, budując podpis tylko gdy miejsce zajmowała inna twarz.
+     */
+    private int labelSlot(int faceId, Paint paint) {
+        int slot = (faceId & Integer.MAX_VALUE) % LABEL_SLOTS;
+        if (mLabels[slot] == null || mLabelIds[slot] != faceId) {
+            mLabelIds[slot] = faceId;
+            mLabels[slot] = "Numer: " + faceId;
+            mLabelKeys[slot] = LabelCache.key(mLabels[slot], paint);
+        }
+        return slot;
+    }
+
+    private static int colorIndex(int faceId) {
+        return (faceId & Integer.MAX_VALUE) % FaceModel.COLOR_CHOICES.length;
+    }
+}
@@ -7,7 +7,10 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.SystemClock;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
@@ -19,11 +22,13 @@ import android.widget.TextView;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.vision.CameraSource;
+import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.MultiProcessor;
 import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.face.Face;
 import com.google.android.gms.vision.face.FaceDetector;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -39,10 +44,43 @@ public final class FaceTrackerMain extends AppCompatActivity {
     private GraphicDraw mGraphicDraw;
     private TextView mUpdates;
 
+    // Ostatnio utracone twarze, aby powracająca osoba zachowała numer i kolor
+    private final FaceReidCache mReidCache = new FaceReidCache();
+    // Numery i kolory twarzy pokazywane na nakładce, dla zrzutów i strumienia twarzy
+    private final DisplayedFaceIds mDisplayedIds = new DisplayedFaceIds();
+
+    private EngagementAggregator mEngagement;
+    private SnapshotCapture mSnapshots;
+    private FaceStreamServer mStreamServer;
+
     private static final int RC_HANDLE_GMS = 9001;
     // kody żądań uprawnień muszą być < 256
     private static final int RC_HANDLE_CAMERA_PERM = 2;
 
+    // Tryb tłumu: wszystkie twarze klatki w jednej tabeli zamiast osobnego Trackera dla każdej twarzy
+    private static final boolean CROWD_MODE = false;
+
+    // Tryb punktów charakterystycznych: oczy, nos i usta rysowane na każdej twarzy
+    private static final boolean LANDMARK_MODE = false;
+
+    // Pomijanie detekcji w klatkach bez ruchu, gdy nikt nie jest śledzony
+    private static final boolean MOTION_GATE = false;
+    // Liczba pustych klatek, po której MultiProcessor kończy ścieżkę; bramka ruchu czeka o klatkę dłużej
+    private static final int MAX_GAP_FRAMES = 3;
+
+    // Zapis statystyk zaangażowania (czas przebywania, uśmiech, kierunek twarzy, mrugnięcia) do pliku
+    private static final boolean ENGAGEMENT_ANALYTICS = false;
+    private static final String ENGAGEMENT_FILE = "engagement.jsonl";
+
+    // Zrzuty podglądu z adnotacjami przy pojawieniu się nowej twarzy lub uśmiechu
+    private static final boolean SNAPSHOTS = false;
+    private static final String SNAPSHOT_DIRECTORY = "snapshots";
+    private static final int SNAPSHOT_QUALITY = 85;
+
+    // Serwer na 127.0.0.1 rozsyłający pozycje twarzy innym procesom
+    private static final boolean STREAM_SERVER = false;
+    private static final int STREAM_PORT = 7878;
+
 
     /**
      * Inicjuje interfejs użytkownika i inicjuje tworzenie detektora twarzy.
@@ -56,6 +94,17 @@ public final class FaceTrackerMain extends AppCompatActivity {
         mGraphicDraw = (GraphicDraw) findViewById(R.id.faceOverlay);
         //mUpdates = (TextView) findViewById(R.id.faceUpdates);
 
+        if (ENGAGEMENT_ANALYTICS) {
+            mEngagement = new EngagementAggregator(new File(getFilesDir(), ENGAGEMENT_FILE));
+            mEngagement.start();
+            // Statystyki ścieżki trafiają do eksportu dopiero, gdy osoba nie wróciła przed wygaśnięciem wpisu
+            mReidCache.setEvictionListener(new FaceReidCache.EvictionListener() {
+                @Override
+                public void onEvicted(FaceReidCache.LostFace face) {
+                    mEngagement.endTrack(face.engagement);
+                }
+            });
+        }
 
 
 
@@ -108,11 +157,39 @@ public final class FaceTrackerMain extends AppCompatActivity {
         Context context = getApplicationContext();
         FaceDetector detector = new FaceDetector.Builder(context)
                 .setClassificationType(FaceDetector.ALL_CLASSIFICATIONS)
+                .setLandmarkType(LANDMARK_MODE ? FaceDetector.ALL_LANDMARKS : FaceDetector.NO_LANDMARKS)
                 .build();
 
-        detector.setProcessor(
-                new MultiProcessor.Builder<>(new GraphicFaceTrackerFactory())
-                        .build());
+        Detector<Face> source = MOTION_GATE ? new MotionGatedDetector(detector, MAX_GAP_FRAMES + 1) : detector;
+
+        if (SNAPSHOTS) {
+            File pictures = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+            mSnapshots = new SnapshotCapture(
+                    new File(pictures != null ? pictures : getFilesDir(), SNAPSHOT_DIRECTORY),
+                    mGraphicDraw, mDisplayedIds, Bitmap.CompressFormat.JPEG, SNAPSHOT_QUALITY);
+            source = new FrameTapDetector(source, mSnapshots);
+        }
+
+        Detector.Processor<Face> processor;
+        if (CROWD_MODE) {
+            processor = new CrowdFaceProcessor(mGraphicDraw);
+        } else {
+            processor = new MultiProcessor.Builder<>(new GraphicFaceTrackerFactory())
+                    .setMaxGapFrames(MAX_GAP_FRAMES)
+                    .build();
+        }
+
+        if (STREAM_SERVER) {
+            mStreamServer = new FaceStreamServer(STREAM_PORT);
+            try {
+                mStreamServer.start();
+                processor = new FaceStreamProcessor(processor, mStreamServer, mDisplayedIds);
+            } catch (IOException e) {
+                Log.e(TAG, "Nie udało się uruchomić serwera twarzy.", e);
+                mStreamServer = null;
+            }
+        }
+        source.setProcessor(processor);
 
         if (!detector.isOperational()) {
             new AlertDialog.Builder(this)
@@ -123,7 +200,7 @@ public final class FaceTrackerMain extends AppCompatActivity {
             return;
         }
 
-        mCameraSource = new CameraSource.Builder(context, detector)
+        mCameraSource = new CameraSource.Builder(context, source)
                 .setRequestedPreviewSize(1024, 720)
                 .setFacing(CameraSource.CAMERA_FACING_BACK)
                 .setRequestedFps(30.0f)
@@ -159,6 +236,13 @@ public final class FaceTrackerMain extends AppCompatActivity {
         if (mCameraSource != null) {
             mCameraSource.release();
         }
+        mReidCache.clear();
+        if (mEngagement != null) {
+            mEngagement.stop();
+        }
+        if (mStreamServer != null) {
+            mStreamServer.close();
+        }
     }
 
     /**
@@ -242,6 +326,10 @@ public final class FaceTrackerMain extends AppCompatActivity {
     private class GraphicFaceTracker extends Tracker<Face> {
         private GraphicDraw mOverlay;
         private FaceModel mFaceModel;
+        private Face mLastFace;
+        private int mDetectorId;
+        private TrackEngagement mTrackEngagement;
+        private boolean mSmiling;
 
         GraphicFaceTracker(GraphicDraw overlay, Context context) {
             mOverlay = overlay;
@@ -253,7 +341,27 @@ public final class FaceTrackerMain extends AppCompatActivity {
          */
         @Override
         public void onNewItem(int faceId, Face item) {
-            mFaceModel.setId(faceId);
+            // Jeśli twarz przypomina niedawno utraconą, przywróć jej numer i kolor
+            FaceReidCache.LostFace lost = mReidCache.match(item, SystemClock.elapsedRealtime());
+            if (lost != null) {
+                mFaceModel.setId(lost.faceId);
+                mFaceModel.setColor(lost.color);
+            } else {
+                mFaceModel.setId(faceId);
+                if (mSnapshots != null) {
+                    mSnapshots.request("twarz" + faceId);
+                }
+            }
+            mDetectorId = faceId;
+            mDisplayedIds.put(faceId, mFaceModel.getId(), mFaceModel.getColor());
+
+            if (lost != null && lost.engagement != null) {
+                // Ta sama osoba - kontynuujemy jej statystyki zamiast zaczynać nowy rekord
+                mTrackEngagement = lost.engagement;
+                mTrackEngagement.resume();
+            } else if (mEngagement != null) {
+                mTrackEngagement = mEngagement.startTrack(mFaceModel.getId(), SystemClock.elapsedRealtime());
+            }
         }
 
         /**
@@ -261,8 +369,18 @@ public final class FaceTrackerMain extends AppCompatActivity {
          */
         @Override
         public void onUpdate(FaceDetector.Detections<Face> detectionResults, Face face) {
+            mLastFace = face;
             mOverlay.add(mFaceModel);
             mFaceModel.updateFace(face);
+            if (mTrackEngagement != null) {
+                mTrackEngagement.update(face, SystemClock.elapsedRealtime());
+            }
+
+            boolean smiling = face.getIsSmilingProbability() > FaceModel.SMILING_PROB_THRESHOLD;
+            if (smiling && !mSmiling && mSnapshots != null) {
+                mSnapshots.request("usmiech" + mFaceModel.getId());
+            }
+            mSmiling = smiling;
 
         }
 
@@ -282,6 +400,12 @@ public final class FaceTrackerMain extends AppCompatActivity {
         @Override
         public void onDone() {
             mOverlay.remove(mFaceModel);
+            mDisplayedIds.remove(mDetectorId);
+            boolean remembered = mReidCache.put(mFaceModel.getId(), mFaceModel.getColor(), mLastFace,
+                    SystemClock.elapsedRealtime(), mTrackEngagement);
+            if (!remembered && mEngagement != null) {
+                mEngagement.endTrack(mTrackEngagement);
+            }
         }
     }
 }
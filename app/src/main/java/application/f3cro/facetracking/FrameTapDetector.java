@@ -0,0 +1,45 @@
+package application.f3cro.facetracking;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+
+/**
+ * Detektor pośredniczący, który zleca wykrywanie twarzy właściwemu detektorowi, a następnie przekazuje
+ * klatkę razem z wykrytymi w niej twarzami do {@link SnapshotCapture}.
+ */
+class FrameTapDetector extends Detector<Face> {
+    private final Detector<Face> mDelegate;
+    private final SnapshotCapture mCapture;
+
+    FrameTapDetector(Detector<Face> delegate, SnapshotCapture capture) {
+        mDelegate = delegate;
+        mCapture = capture;
+    }
+
+    @Override
+    public SparseArray<Face> detect(Frame frame) {
+        SparseArray<Face> faces = mDelegate.detect(frame);
+        mCapture.onFrame(frame, faces);
+        return faces;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mDelegate.isOperational();
+    }
+
+    @Override
+    public boolean setFocus(int id) {
+        return mDelegate.setFocus(id);
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        mDelegate.release();
+        mCapture.release();
+    }
+}
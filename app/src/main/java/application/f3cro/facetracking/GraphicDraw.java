@@ -37,6 +37,13 @@ public class GraphicDraw extends View {
     private int mFacing = CameraSource.CAMERA_FACING_BACK;
     private Set<Graphic> mGraphics = new HashSet<>();
 
+    // Poziom szczegółowości i podpisy wspólne dla wszystkich grafik, używane tylko w onDraw
+    private final LabelCache mLabelCache = new LabelCache();
+    private final DetailLevels mDetailLevels = new DetailLevels();
+    private float[] mDetailScores = new float[16];
+    private int[] mDetailLevelsOut = new int[16];
+    private final LandmarkBatch mLandmarks = new LandmarkBatch();
+
     /**
      * Klasa podstawowa dla niestandardowego obiektu graficznego, który ma być renderowany w nakładce graficznej. Podklasa
      * zaimplementuje metodę {@link Graphic # draw (Canvas)}, aby zdefiniować
@@ -44,6 +51,7 @@ public class GraphicDraw extends View {
      */
     public static abstract class Graphic {
         private GraphicDraw mOverlay;
+        private int mDetailLevel = DetailLevels.LEVEL_FULL;
 
         public Graphic(GraphicDraw overlay) {
             mOverlay = overlay;
@@ -54,6 +62,35 @@ public class GraphicDraw extends View {
          */
         public abstract void draw(Canvas canvas);
 
+        /**
+         * Priorytet grafiki przy wyborze poziomu szczegółowości (zob. {@link DetailLevels}). Grafiki,
+         * które nie biorą udziału w rankingu, zwracają wartość ujemną i są zawsze rysowane w pełni.
+         */
+        public float getDetailScore(int viewWidth, int viewHeight) {
+            return -1;
+        }
+
+        /**
+         * Poziom szczegółowości przydzielony grafice w bieżącym przebiegu rysowania.
+         */
+        public int getDetailLevel() {
+            return mDetailLevel;
+        }
+
+        /**
+         * Wspólna pamięć podręczna bitmap z podpisami.
+         */
+        public LabelCache getLabelCache() {
+            return mOverlay.mLabelCache;
+        }
+
+        /**
+         * Wspólny bufor punktów charakterystycznych, rysowany jednym wywołaniem po wszystkich grafikach.
+         */
+        public LandmarkBatch getLandmarkBatch() {
+            return mOverlay.mLandmarks;
+        }
+
         /**
          * Dostosowuje poziomą wartość
          */
@@ -144,22 +181,52 @@ public class GraphicDraw extends View {
         postInvalidate();
     }
 
+    boolean isFrontFacing() {
+        synchronized (mLock) {
+            return mFacing == CameraSource.CAMERA_FACING_FRONT;
+        }
+    }
+
     /**
      * Rysuje nakładkę z powiązanymi z nią obiektami graficznymi.
      */
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-
         synchronized (mLock) {
             if ((mPreviewWidth != 0) && (mPreviewHeight != 0)) {
                 mWidthScaleFactor = (float) canvas.getWidth() / (float) mPreviewWidth;
                 mHeightScaleFactor = (float) canvas.getHeight() / (float) mPreviewHeight;
             }
 
+            assignDetailLevels(canvas.getWidth(), canvas.getHeight());
+
+            mLandmarks.reset();
             for (Graphic graphic : mGraphics) {
                 graphic.draw(canvas);
             }
+            mLandmarks.draw(canvas);
+        }
+    }
+
+    /**
+     * Nadaje grafikom poziom szczegółowości na podstawie ich priorytetów. Wołane pod blokadą.
+     */
+    private void assignDetailLevels(int width, int height) {
+        if (mDetailScores.length < mGraphics.size()) {
+            mDetailScores = new float[mGraphics.size() * 2];
+            mDetailLevelsOut = new int[mGraphics.size() * 2];
+        }
+
+        int count = 0;
+        for (Graphic graphic : mGraphics) {
+            mDetailScores[count++] = graphic.getDetailScore(width, height);
+        }
+        mDetailLevels.assign(mDetailScores, count, mDetailLevelsOut);
+
+        int i = 0;
+        for (Graphic graphic : mGraphics) {
+            graphic.mDetailLevel = mDetailLevelsOut[i++];
         }
     }
 }
@@ -0,0 +1,75 @@
+package application.f3cro.facetracking;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.LruCache;
+
+/**
+ * Pamięć podręczna podpisów nakładki wyrenderowanych do bitmap. Tekst, który nie zmienia się między
+ * klatkami, jest rysowany przez {@code drawText} tylko raz, a w kolejnych klatkach bitmapa jest jedynie
+ * kopiowana na płótno. Najdawniej używane podpisy są usuwane po przekroczeniu budżetu pamięci.
+ *
+ * Używana wyłącznie z wątku UI.
+ */
+class LabelCache {
+    static final int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+    private final LruCache<String, Bitmap> mBitmaps;
+    private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
+
+    LabelCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    LabelCache(int maxBytes) {
+        mBitmaps = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Klucz podpisu - ten sam tekst w innym kolorze to inna bitmapa. Wywołujący powinien zapamiętać
+     * klucz razem z tekstem, aby nie budować go w każdej klatce.
+     */
+    static String key(String text, Paint paint) {
+        return paint.getColor() + "|" + paint.getTextSize() + "|" + text;
+    }
+
+    /**
+     * Rysuje podpis tak jak {@link Canvas#drawText(String, float, float, Paint)}, tj. {@code y} jest
+     * linią bazową tekstu.
+     */
+    void drawText(Canvas canvas, String key, String text, float x, float y, Paint paint) {
+        Bitmap bitmap = mBitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = render(text, paint);
+            if (bitmap == null) {
+                return;
+            }
+            mBitmaps.put(key, bitmap);
+        }
+        paint.getFontMetrics(mFontMetrics);
+        canvas.drawBitmap(bitmap, x, y + mFontMetrics.ascent, null);
+    }
+
+    void clear() {
+        mBitmaps.evictAll();
+    }
+
+    private Bitmap render(String text, Paint paint) {
+        paint.getFontMetrics(mFontMetrics);
+        int width = (int) Math.ceil(paint.measureText(text));
+        int height = (int) Math.ceil(mFontMetrics.descent - mFontMetrics.ascent);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawText(text, 0, -mFontMetrics.ascent, paint);
+        return bitmap;
+    }
+}
@@ -0,0 +1,121 @@
+package application.f3cro.facetracking;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import com.google.android.gms.vision.face.Landmark;
+
+import java.util.Arrays;
+
+/**
+ * Zbiera punkty charakterystyczne (oczy, nos, usta) wszystkich twarzy jednej klatki we wspólnych
+ * tablicach i rysuje je na końcu jednym wywołaniem {@code drawPoints} i jednym {@code drawLines},
+ * zamiast osobnego wywołania dla każdego punktu. Tablice są używane ponownie w kolejnych klatkach.
+ *
+ * Instancja nie jest bezpieczna wątkowo. Bufor nakładki używany jest wyłącznie z wątku UI, w trakcie
+ * {@link GraphicDraw#onDraw(Canvas)}; {@link SnapshotCapture} ma własną instancję na wątku kodowania.
+ */
+class LandmarkBatch {
+    private static final float POINT_SIZE = 10.0f;
+    private static final float LINE_WIDTH = 4.0f;
+
+    private final Paint mPointPaint;
+    private final Paint mLinePaint;
+
+    private float[] mPoints = new float[64];
+    private int mPointCount;
+    private float[] mLines = new float[64];
+    private int mLineCount;
+
+    // Kąciki i dolna krawędź ust bieżącej twarzy, łączone liniami w endFace()
+    private final float[] mMouth = new float[6];
+    private int mMouthMask;
+
+    LandmarkBatch() {
+        mPointPaint = new Paint();
+        mPointPaint.setColor(Color.WHITE);
+        mPointPaint.setStrokeWidth(POINT_SIZE);
+        mPointPaint.setStrokeCap(Paint.Cap.ROUND);
+
+        mLinePaint = new Paint();
+        mLinePaint.setColor(Color.WHITE);
+        mLinePaint.setStrokeWidth(LINE_WIDTH);
+    }
+
+    void reset() {
+        mPointCount = 0;
+        mLineCount = 0;
+    }
+
+    void beginFace() {
+        mMouthMask = 0;
+    }
+
+    /**
+     * Dodaje punkt charakterystyczny twarzy we współrzędnych widoku. Typy inne niż oczy, podstawa nosa
+     * i usta są pomijane.
+     */
+    void addLandmark(int type, float x, float y) {
+        switch (type) {
+            case Landmark.LEFT_EYE:
+            case Landmark.RIGHT_EYE:
+            case Landmark.NOSE_BASE:
+                break;
+            case Landmark.LEFT_MOUTH:
+                setMouth(0, x, y);
+                break;
+            case Landmark.BOTTOM_MOUTH:
+                setMouth(1, x, y);
+                break;
+            case Landmark.RIGHT_MOUTH:
+                setMouth(2, x, y);
+                break;
+            default:
+                return;
+        }
+
+        if (mPoints.length < mPointCount + 2) {
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+        }
+        mPoints[mPointCount++] = x;
+        mPoints[mPointCount++] = y;
+    }
+
+    /**
+     * Kończy twarz - łączy dostępne punkty ust w linię.
+     */
+    void endFace() {
+        if ((mMouthMask & 0x3) == 0x3) {
+            addLine(mMouth[0], mMouth[1], mMouth[2], mMouth[3]);
+        }
+        if ((mMouthMask & 0x6) == 0x6) {
+            addLine(mMouth[2], mMouth[3], mMouth[4], mMouth[5]);
+        }
+    }
+
+    void draw(Canvas canvas) {
+        if (mPointCount > 0) {
+            canvas.drawPoints(mPoints, 0, mPointCount, mPointPaint);
+        }
+        if (mLineCount > 0) {
+            canvas.drawLines(mLines, 0, mLineCount, mLinePaint);
+        }
+    }
+
+    private void setMouth(int index, float x, float y) {
+        mMouth[2 * index] = x;
+        mMouth[2 * index + 1] = y;
+        mMouthMask |= 1 << index;
+    }
+
+    private void addLine(float x0, float y0, float x1, float y1) {
+        if (mLines.length < mLineCount + 4) {
+            mLines = Arrays.copyOf(mLines, mLines.length * 2);
+        }
+        mLines[mLineCount++] = x0;
+        mLines[mLineCount++] = y0;
+        mLines[mLineCount++] = x1;
+        mLines[mLineCount++] = y1;
+    }
+}
@@ -0,0 +1,163 @@
+package application.f3cro.facetracking;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detektor pośredniczący, który pomija wykrywanie twarzy w klatkach bez ruchu. Każda klatka jest
+ * zmniejszana do miniatury jasności (kilkanaście na kilkanaście pikseli) i porównywana z miniaturą
+ * poprzedniej klatki. Jeśli żaden fragment kadru nie zmienił się wyraźnie i żadna twarz nie jest
+ * śledzona, klatka nie trafia do właściwego detektora.
+ *
+ * Twarz uznawana jest za śledzoną jeszcze przez {@code holdOffFrames} klatek po ostatnim niepustym
+ * wykryciu. Wartość nie może być mniejsza niż dopuszczalna przerwa procesora ({@code MultiProcessor}
+ * kończy ścieżkę po tylu pustych klatkach) - w przeciwnym razie osoba stojąca nieruchomo, którą
+ * detektor zgubi na jedną klatkę, byłaby pomijana aż do wymuszonej detekcji, a jej ścieżka
+ * zostałaby zakończona i rozpoczęta od nowa. Co {@code forcedInterval} klatek detekcja jest wykonywana zawsze,
+ * aby nie przegapić osoby, która pojawia się bardzo powoli.
+ *
+ * Zmiana oceniana jest dla każdego piksela miniatury osobno, a nie jako średnia z całego kadru, więc
+ * nawet niewielka osoba wchodząca w kadr od razu przywraca detekcję w tej samej klatce.
+ */
+class MotionGatedDetector extends Detector<Face> {
+    static final int DEFAULT_THRESHOLD = 12;
+    static final int DEFAULT_FORCED_INTERVAL = 15;
+    // Domyślna przerwa MultiProcessor to 3 klatki
+    static final int DEFAULT_HOLD_OFF_FRAMES = 4;
+
+    private static final int THUMBNAIL_WIDTH = 16;
+    private static final int THUMBNAIL_HEIGHT = 12;
+    // Liczba próbek w każdym kierunku, uśredniana w jeden piksel miniatury
+    private static final int SAMPLES_PER_CELL = 4;
+    // Liczba zmienionych pikseli miniatury oznaczająca ruch; pojedynczy piksel traktujemy jako szum
+    private static final int MIN_CHANGED_CELLS = 2;
+
+    private final Detector<Face> mDelegate;
+    private final int mThreshold;
+    private final int mForcedInterval;
+    private final int mHoldOffFrames;
+
+    private int[] mThumbnail = new int[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+    private int[] mPreviousThumbnail = new int[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+    private boolean mHasPrevious;
+
+    // Liczba klatek od ostatniego wykrycia z twarzami; na starcie bramka jest zamknięta
+    private int mFramesSinceFaces = Integer.MAX_VALUE;
+    private int mFramesSinceDetection;
+    private final SparseArray<Face> mNoFaces = new SparseArray<>();
+
+    MotionGatedDetector(Detector<Face> delegate) {
+        this(delegate, DEFAULT_THRESHOLD, DEFAULT_FORCED_INTERVAL, DEFAULT_HOLD_OFF_FRAMES);
+    }
+
+    MotionGatedDetector(Detector<Face> delegate, int holdOffFrames) {
+        this(delegate, DEFAULT_THRESHOLD, DEFAULT_FORCED_INTERVAL, holdOffFrames);
+    }
+
+    /**
+     * @param threshold      bezwzględna różnica jasności (0-255) piksela miniatury, od której piksel
+     *                       uznawany jest za zmieniony
+     * @param forcedInterval maksymalna liczba kolejnych pominiętych klatek
+     * @param holdOffFrames  liczba klatek po ostatnim wykryciu twarzy, w których detekcja wykonywana
+     *                       jest zawsze
+     */
+    MotionGatedDetector(Detector<Face> delegate, int threshold, int forcedInterval, int holdOffFrames) {
+        mDelegate = delegate;
+        mThreshold = threshold;
+        mForcedInterval = forcedInterval;
+        mHoldOffFrames = holdOffFrames;
+    }
+
+    @Override
+    public SparseArray<Face> detect(Frame frame) {
+        boolean changed = updateThumbnail(frame);
+
+        boolean tracking = mFramesSinceFaces < mHoldOffFrames;
+        if (!changed && !tracking && mFramesSinceDetection < mForcedInterval) {
+            mFramesSinceDetection++;
+            return mNoFaces;
+        }
+
+        mFramesSinceDetection = 0;
+        SparseArray<Face> faces = mDelegate.detect(frame);
+        if (faces.size() > 0) {
+            mFramesSinceFaces = 0;
+        } else if (mFramesSinceFaces < Integer.MAX_VALUE) {
+            mFramesSinceFaces++;
+        }
+        return faces;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mDelegate.isOperational();
+    }
+
+    @Override
+    public boolean setFocus(int id) {
+        return mDelegate.setFocus(id);
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        mDelegate.release();
+    }
+
+    /**
+     * Buduje miniaturę bieżącej klatki i porównuje ją z poprzednią.
+     *
+     * @return {@code true}, jeśli klatka różni się od poprzedniej lub nie da się tego ocenić
+     */
+    private boolean updateThumbnail(Frame frame) {
+        ByteBuffer luminance = frame.getGrayscaleImageData();
+        int width = frame.getMetadata().getWidth();
+        int height = frame.getMetadata().getHeight();
+        if (luminance == null || width < THUMBNAIL_WIDTH * SAMPLES_PER_CELL
+                || height < THUMBNAIL_HEIGHT * SAMPLES_PER_CELL
+                || luminance.capacity() < width * height) {
+            mHasPrevious = false;
+            return true;
+        }
+
+        int cellWidth = width / THUMBNAIL_WIDTH;
+        int cellHeight = height / THUMBNAIL_HEIGHT;
+        int stepX = cellWidth / SAMPLES_PER_CELL;
+        int stepY = cellHeight / SAMPLES_PER_CELL;
+
+        int changedCells = 0;
+        for (int ty = 0; ty < THUMBNAIL_HEIGHT; ty++) {
+            for (int tx = 0; tx < THUMBNAIL_WIDTH; tx++) {
+                int sum = 0;
+                int rowStart = ty * cellHeight + stepY / 2;
+                int columnStart = tx * cellWidth + stepX / 2;
+                for (int sy = 0; sy < SAMPLES_PER_CELL; sy++) {
+                    int offset = (rowStart + sy * stepY) * width + columnStart;
+                    for (int sx = 0; sx < SAMPLES_PER_CELL; sx++) {
+                        sum += luminance.get(offset + sx * stepX) & 0xFF;
+                    }
+                }
+
+                int index = ty * THUMBNAIL_WIDTH + tx;
+                int value = sum / (SAMPLES_PER_CELL * SAMPLES_PER_CELL);
+                mThumbnail[index] = value;
+                if (Math.abs(value - mPreviousThumbnail[index]) >= mThreshold) {
+                    changedCells++;
+                }
+            }
+        }
+
+        boolean changed = !mHasPrevious || changedCells >= MIN_CHANGED_CELLS;
+
+        int[] tmp = mPreviousThumbnail;
+        mPreviousThumbnail = mThumbnail;
+        mThumbnail = tmp;
+        mHasPrevious = true;
+        return changed;
+    }
+}
@@ -0,0 +1,369 @@
+package application.f3cro.facetracking;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ImageFormat;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.Landmark;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zapisuje zrzuty podglądu kamery z naniesionymi adnotacjami nakładki, np. gdy pojawi się nowa twarz
+ * lub ktoś się uśmiechnie.
+ *
+ * {@link #request(String)} tylko zaznacza zdarzenie. Przy następnej klatce
+ * {@link #onFrame(Frame, SparseArray)} kopiuje jej dane NV21 i twarze wykryte w tej klatce do bufora
+ * z puli - to jedyny koszt na wątku detektora. Konwersja, rysowanie adnotacji, kodowanie JPEG/PNG
+ * i zapis odbywają się na jednym wątku w tle, na bitmapach używanych ponownie między zrzutami.
+ * Liczba oczekujących zrzutów jest ograniczona; nadmiarowe żądania są odrzucane.
+ *
+ * Adnotacje rysowane są z kopii twarzy, a nie z bieżącego stanu {@link GraphicDraw}, więc odpowiadają
+ * zapisanej klatce, a wątek kodowania nie blokuje nakładki ani detektora. Numer i kolor każdej twarzy
+ * pochodzą z {@link DisplayedFaceIds} w chwili kopiowania, więc zgadzają się z nakładką także po
+ * ponownym rozpoznaniu osoby.
+ */
+class SnapshotCapture {
+    private static final String TAG = "SnapshotCapture";
+
+    private static final int MAX_PENDING = 2;
+    // Jeden bufor na każde oczekujące zadanie i jeden na zadanie w trakcie kodowania
+    private static final int MAX_BUFFERS = MAX_PENDING + 1;
+    private static final int INTERMEDIATE_JPEG_QUALITY = 90;
+
+    private static final float FACE_POSITION_RADIUS = 10.0f;
+    private static final float ID_TEXT_SIZE = 40.0f;
+    private static final float ID_Y_OFFSET = 50.0f;
+    private static final float ID_X_OFFSET = -50.0f;
+    private static final float BOX_STROKE_WIDTH = 5.0f;
+
+    private final File mDirectory;
+    private final GraphicDraw mOverlay;
+    private final DisplayedFaceIds mDisplayedIds;
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+
+    private volatile String mRequestedReason;
+
+    // Pula buforów na dane klatek, używana z wątku detektora i wątku kodowania
+    private final ArrayBlockingQueue<CapturedFrame> mFreeBuffers = new ArrayBlockingQueue<>(MAX_BUFFERS);
+    private int mAllocatedBuffers;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    // Zasoby wątku kodowania, używane ponownie między zrzutami
+    private final ByteArrayOutputStream mJpegStream = new ByteArrayOutputStream();
+    private final BitmapFactory.Options mDecodeOptions = new BitmapFactory.Options();
+    private final Matrix mMatrix = new Matrix();
+    private final Paint mFramePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Canvas mCanvas = new Canvas();
+    private Bitmap mFrameBitmap;
+    private Bitmap mSnapshotBitmap;
+    private final Paint mPositionPaint = new Paint();
+    private final Paint mIdPaint = new Paint();
+    private final Paint mBoxPaint = new Paint();
+    private final LandmarkBatch mLandmarks = new LandmarkBatch();
+
+    /**
+     * Dane NV21 klatki i kopia twarzy wykrytych w tej klatce. Tabela ma numery detektora; numery
+     * i kolory pokazywane na nakładce są w tablicach równoległych do jej wierszy.
+     */
+    private static final class CapturedFrame {
+        byte[] data;
+        final FaceTable faces = new FaceTable();
+        int[] displayedIds = new int[0];
+        int[] colors = new int[0];
+    }
+
+    SnapshotCapture(File directory, GraphicDraw overlay, DisplayedFaceIds displayedIds,
+                    Bitmap.CompressFormat format, int quality) {
+        mDirectory = directory;
+        mOverlay = overlay;
+        mDisplayedIds = displayedIds;
+        mFormat = format;
+        mQuality = quality;
+
+        mDecodeOptions.inMutable = true;
+        mDecodeOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        mIdPaint.setTextSize(ID_TEXT_SIZE);
+        mBoxPaint.setStyle(Paint.Style.STROKE);
+        mBoxPaint.setStrokeWidth(BOX_STROKE_WIDTH);
+
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING), new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                Log.w(TAG, "Kolejka zrzutów jest pełna, zrzut pominięty.");
+                recycle(((EncodeTask) task).mFrame);
+            }
+        });
+    }
+
+    /**
+     * Zaznacza zdarzenie - zrzut zostanie wykonany z następnej klatki. Kolejne żądania przed tą
+     * klatką są łączone w jeden zrzut.
+     */
+    void request(String reason) {
+        mRequestedReason = reason;
+    }
+
+    /**
+     * Wołane z wątku detektora dla każdej klatki, po wykryciu w niej twarzy. Bez żądania nic nie robi.
+     */
+    void onFrame(Frame frame, SparseArray<Face> faces) {
+        String reason = mRequestedReason;
+        if (reason == null) {
+            return;
+        }
+        mRequestedReason = null;
+
+        ByteBuffer data = frame.getGrayscaleImageData();
+        Frame.Metadata metadata = frame.getMetadata();
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        int size = width * height * 3 / 2;
+        if (data == null || data.capacity() < size) {
+            Log.w(TAG, "Klatka nie zawiera danych NV21, zrzut pominięty.");
+            return;
+        }
+
+        CapturedFrame captured = obtainBuffer(size);
+        if (captured == null) {
+            Log.w(TAG, "Brak wolnego bufora, zrzut pominięty.");
+            return;
+        }
+
+        // Jedyna kopia na wątku detektora
+        ByteBuffer source = data.duplicate();
+        source.position(0);
+        source.get(captured.data, 0, size);
+        copyFaces(faces, captured);
+
+        mExecutor.execute(new EncodeTask(captured, width, height, metadata.getRotation(),
+                metadata.getTimestampMillis(), reason));
+    }
+
+    void release() {
+        mExecutor.shutdown();
+    }
+
+    private synchronized CapturedFrame obtainBuffer(int size) {
+        CapturedFrame captured = mFreeBuffers.poll();
+        if (captured == null) {
+            if (mAllocatedBuffers >= MAX_BUFFERS) {
+                return null;
+            }
+            mAllocatedBuffers++;
+            captured = new CapturedFrame();
+        }
+        if (captured.data == null || captured.data.length < size) {
+            captured.data = new byte[size];
+        }
+        return captured;
+    }
+
+    private void recycle(CapturedFrame captured) {
+        mFreeBuffers.offer(captured);
+    }
+
+    private void copyFaces(SparseArray<Face> faces, CapturedFrame captured) {
+        FaceTable table = captured.faces;
+        table.clear();
+        if (captured.displayedIds.length < faces.size()) {
+            captured.displayedIds = new int[faces.size()];
+            captured.colors = new int[faces.size()];
+        }
+
+        for (int i = 0; i < faces.size(); i++) {
+            Face face = faces.valueAt(i);
+            int detectorId = faces.keyAt(i);
+            captured.displayedIds[i] = mDisplayedIds.getId(detectorId);
+            captured.colors[i] = mDisplayedIds.getColor(detectorId);
+            table.add(detectorId,
+                    face.getPosition().x, face.getPosition().y,
+                    face.getWidth(), face.getHeight(),
+                    face.getEulerY(), face.getEulerZ(),
+                    face.getIsSmilingProbability());
+
+            List<Landmark> landmarks = face.getLandmarks();
+            for (int j = 0; landmarks != null && j < landmarks.size(); j++) {
+                Landmark landmark = landmarks.get(j);
+                table.addLandmark(landmark.getType(), landmark.getPosition().x, landmark.getPosition().y);
+            }
+        }
+    }
+
+    private class EncodeTask implements Runnable {
+        private final CapturedFrame mFrame;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mRotation;
+        private final long mTimestamp;
+        private final String mReason;
+
+        EncodeTask(CapturedFrame frame, int width, int height, int rotation, long timestamp, String reason) {
+            mFrame = frame;
+            mWidth = width;
+            mHeight = height;
+            mRotation = rotation;
+            mTimestamp = timestamp;
+            mReason = reason;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Bitmap snapshot;
+                try {
+                    Bitmap frame = decodeFrame(mFrame.data, mWidth, mHeight);
+                    snapshot = frame != null ? compose(frame, mRotation, mFrame) : null;
+                } finally {
+                    // Bitmapa zawiera już klatkę i adnotacje - bufor może wrócić do puli przed zapisem
+                    recycle(mFrame);
+                }
+                if (snapshot != null) {
+                    write(snapshot, mTimestamp, mReason);
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Nie udało się zapisać zrzutu.", e);
+            }
+        }
+    }
+
+    /**
+     * Zamienia dane NV21 na bitmapę, dekodując do bitmapy z poprzedniego zrzutu, jeśli to możliwe.
+     */
+    private Bitmap decodeFrame(byte[] data, int width, int height) {
+        mJpegStream.reset();
+        YuvImage image = new YuvImage(data, ImageFormat.NV21, width, height, null);
+        if (!image.compressToJpeg(new Rect(0, 0, width, height), INTERMEDIATE_JPEG_QUALITY, mJpegStream)) {
+            return null;
+        }
+
+        byte[] jpeg = mJpegStream.toByteArray();
+        mDecodeOptions.inBitmap = mFrameBitmap != null
+                && mFrameBitmap.getWidth() == width && mFrameBitmap.getHeight() == height ? mFrameBitmap : null;
+        try {
+            mFrameBitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, mDecodeOptions);
+        } catch (IllegalArgumentException e) {
+            // Bitmapa z puli nie pasuje - dekodujemy do nowej
+            mDecodeOptions.inBitmap = null;
+            mFrameBitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, mDecodeOptions);
+        }
+        return mFrameBitmap;
+    }
+
+    /**
+     * Rysuje klatkę obróconą i przeskalowaną do rozmiaru nakładki, a na niej adnotacje skopiowanych twarzy.
+     */
+    private Bitmap compose(Bitmap frame, int rotation, CapturedFrame captured) {
+        int viewWidth = mOverlay.getWidth();
+        int viewHeight = mOverlay.getHeight();
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            return null;
+        }
+
+        if (mSnapshotBitmap == null || mSnapshotBitmap.getWidth() != viewWidth
+                || mSnapshotBitmap.getHeight() != viewHeight) {
+            mSnapshotBitmap = Bitmap.createBitmap(viewWidth, viewHeight, Bitmap.Config.ARGB_8888);
+            mCanvas.setBitmap(mSnapshotBitmap);
+        }
+        mSnapshotBitmap.eraseColor(Color.BLACK);
+
+        int degrees = rotation * 90;
+        boolean swap = rotation == Frame.Metadata.ROTATION_90 || rotation == Frame.Metadata.ROTATION_270;
+        float uprightWidth = swap ? frame.getHeight() : frame.getWidth();
+        float uprightHeight = swap ? frame.getWidth() : frame.getHeight();
+
+        boolean mirror = mOverlay.isFrontFacing();
+        float scaleX = viewWidth / uprightWidth;
+        float scaleY = viewHeight / uprightHeight;
+
+        mMatrix.reset();
+        mMatrix.postTranslate(-frame.getWidth() / 2.0f, -frame.getHeight() / 2.0f);
+        mMatrix.postRotate(degrees);
+        mMatrix.postScale(mirror ? -scaleX : scaleX, scaleY);
+        mMatrix.postTranslate(viewWidth / 2.0f, viewHeight / 2.0f);
+
+        mCanvas.drawBitmap(frame, mMatrix, mFramePaint);
+        drawFaces(mCanvas, captured, viewWidth, scaleX, scaleY, mirror);
+        return mSnapshotBitmap;
+    }
+
+    /**
+     * Rysuje adnotacje twarzy tak jak nakładka: punkt w środku twarzy, numer, obwiednię i punkty
+     * charakterystyczne. Współrzędne twarzy są w układzie wyprostowanej klatki.
+     */
+    private void drawFaces(Canvas canvas, CapturedFrame captured, int viewWidth, float scaleX, float scaleY,
+                           boolean mirror) {
+        FaceTable faces = captured.faces;
+        mLandmarks.reset();
+        for (int i = 0; i < faces.size; i++) {
+            int color = captured.colors[i];
+            mPositionPaint.setColor(color);
+            mIdPaint.setColor(color);
+            mBoxPaint.setColor(color);
+
+            float x = mirror ? viewWidth - faces.centerX(i) * scaleX : faces.centerX(i) * scaleX;
+            float y = faces.centerY(i) * scaleY;
+            float xOffset = faces.width[i] * scaleX / 2.0f;
+            float yOffset = faces.height[i] * scaleY / 2.0f;
+
+            canvas.drawCircle(x, y, FACE_POSITION_RADIUS, mPositionPaint);
+            canvas.drawText("Numer: " + captured.displayedIds[i], x + ID_X_OFFSET, y + ID_Y_OFFSET, mIdPaint);
+            canvas.drawRect(x - xOffset, y - yOffset, x + xOffset, y + yOffset, mBoxPaint);
+
+            if (faces.landmarkCount[i] > 0) {
+                mLandmarks.beginFace();
+                int end = faces.landmarkStart[i] + faces.landmarkCount[i];
+                for (int j = faces.landmarkStart[i]; j < end; j++) {
+                    float landmarkX = faces.landmarkX[j] * scaleX;
+                    mLandmarks.addLandmark(faces.landmarkTypes[j],
+                            mirror ? viewWidth - landmarkX : landmarkX, faces.landmarkY[j] * scaleY);
+                }
+                mLandmarks.endFace();
+            }
+        }
+        mLandmarks.draw(canvas);
+    }
+
+    private void write(Bitmap snapshot, long timestamp, String reason) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Nie można utworzyć katalogu " + mDirectory);
+        }
+
+        String extension = mFormat == Bitmap.CompressFormat.PNG ? "png" : "jpg";
+        File file = new File(mDirectory, String.format(Locale.US, "snapshot_%d_%d_%s.%s",
+                System.currentTimeMillis(), timestamp, reason, extension));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            snapshot.compress(mFormat, mQuality, out);
+        } finally {
+            out.close();
+        }
+        Log.d(TAG, "Zapisano zrzut " + file.getName());
+    }
+}
@@ -0,0 +1,75 @@
+package application.f3cro.facetracking;
+
+import com.google.android.gms.vision.face.Face;
+
+/**
+ * Liczniki zaangażowania jednej ścieżki twarzy: czas przebywania, udział klatek z uśmiechem, czas
+ * w każdym kierunku odchylenia twarzy i liczba mrugnięć. Rozmiar jest stały niezależnie od długości
+ * ścieżki.
+ *
+ * Aktualizowane tylko z wątku detektora, do czasu przekazania do {@link EngagementAggregator#endTrack}.
+ * Po utracie twarzy czeka w {@link FaceReidCache} - jeśli osoba zostanie rozpoznana ponownie, nowa
+ * ścieżka kontynuuje te same liczniki ({@link #resume()}), więc jedna osoba daje jeden rekord.
+ */
+class TrackEngagement {
+    final int faceId;
+    final long firstSeen;
+    long lastSeen;
+
+    int frames;
+    int smilingFrames;
+    // Czas (ms) w każdym kierunku odchylenia, indeksy jak w FaceModel.POSE_LABELS
+    final long[] poseMillis = new long[FaceModel.POSE_BUCKET_COUNT];
+    int blinks;
+
+    private int mLastPose = -1;
+    private boolean mEyesClosed;
+
+    TrackEngagement(int faceId, long now) {
+        this.faceId = faceId;
+        this.firstSeen = now;
+        this.lastSeen = now;
+    }
+
+    /**
+     * Dolicza jedną klatkę z twarzą. Bez alokacji - wołane dla każdej twarzy w każdej klatce.
+     */
+    void update(Face face, long now) {
+        // Czas od poprzedniej klatki przypisujemy do kierunku, w którym twarz wtedy była
+        if (mLastPose >= 0) {
+            poseMillis[mLastPose] += now - lastSeen;
+        }
+        mLastPose = FaceModel.getPoseBucket(face.getEulerY(), face.getEulerZ());
+        lastSeen = now;
+
+        frames++;
+        if (face.getIsSmilingProbability() > FaceModel.SMILING_PROB_THRESHOLD) {
+            smilingFrames++;
+        }
+
+        float left = face.getIsLeftEyeOpenProbability();
+        float right = face.getIsRightEyeOpenProbability();
+        if (left >= 0 && right >= 0) {
+            boolean closed = left < FaceModel.EYE_OPEN_PROB_THRESHOLD
+                    && right < FaceModel.EYE_OPEN_PROB_THRESHOLD;
+            // Mrugnięcie liczymy w chwili ponownego otwarcia oczu
+            if (mEyesClosed && !closed) {
+                blinks++;
+            }
+            mEyesClosed = closed;
+        }
+    }
+
+    /**
+     * Wznawia ścieżkę po ponownym rozpoznaniu osoby. Czas przerwy wlicza się do czasu przebywania,
+     * ale nie do żadnego kierunku twarzy, a stan oczu sprzed przerwy nie tworzy mrugnięcia.
+     */
+    void resume() {
+        mLastPose = -1;
+        mEyesClosed = false;
+    }
+
+    long dwellMillis() {
+        return lastSeen - firstSeen;
+    }
+}
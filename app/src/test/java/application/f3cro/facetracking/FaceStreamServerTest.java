@@ -0,0 +1,201 @@
+package application.f3cro.facetracking;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sprawdza {@link FaceStreamServer} z klientami TCP na zwykłej JVM.
+ */
+public class FaceStreamServerTest {
+    private static final int TIMEOUT_MS = 5000;
+
+    private FaceStreamServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FaceStreamServer(0, 2);
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void frameLayout() throws IOException {
+        FaceTable table = new FaceTable();
+        table.add(3, 10, 20, 30, 40, 5, -6, 0.25f);
+        table.add(7, 1, 2, 3, 4, 0, 0, 0.75f);
+        mServer.publish(table, 1234);
+
+        Socket client = connect();
+        try {
+            DataInputStream in = input(client);
+            int length = in.readInt();
+            assertEquals(FaceStreamServer.HEADER_SIZE - 4 + 2 * FaceStreamServer.FACE_SIZE, length);
+            assertEquals(FaceStreamServer.MAGIC, in.readInt());
+            assertEquals(FaceStreamServer.VERSION, in.readShort());
+            assertEquals(2, in.readShort());
+            assertEquals(1, in.readLong());
+            assertEquals(1234, in.readLong());
+
+            assertEquals(3, in.readInt());
+            assertEquals(10, in.readFloat(), 0);
+            assertEquals(20, in.readFloat(), 0);
+            assertEquals(30, in.readFloat(), 0);
+            assertEquals(40, in.readFloat(), 0);
+            assertEquals(5, in.readFloat(), 0);
+            assertEquals(-6, in.readFloat(), 0);
+            assertEquals(0.25f, in.readFloat(), 0);
+            assertEquals(7, in.readInt());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void stalledClientSkipsToLatestFrame() throws IOException {
+        int published = 2000;
+        FaceTable table = tableWithFaces(200);
+        mServer.publish(table, 0);
+
+        Socket client = new Socket();
+        client.setReceiveBufferSize(64 * 1024);
+        client.connect(new InetSocketAddress("127.0.0.1", mServer.getLocalPort()), TIMEOUT_MS);
+        client.setSoTimeout(TIMEOUT_MS);
+        try {
+            // Klient nie czyta, dopóki wszystkie klatki nie zostaną opublikowane
+            for (int i = 1; i < published; i++) {
+                mServer.publish(table, i);
+            }
+
+            DataInputStream in = input(client);
+            long previous = 0;
+            int received = 0;
+            while (previous < published) {
+                long sequence = readFrame(in);
+                assertTrue("Numery klatek muszą rosnąć", sequence > previous);
+                previous = sequence;
+                received++;
+            }
+            assertTrue("Odebrano " + received + " z " + published + " klatek", received < published / 10);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void rejectsClientsAboveLimit() throws IOException {
+        mServer.publish(tableWithFaces(1), 0);
+
+        Socket first = connect();
+        Socket second = connect();
+        Socket third = connect();
+        try {
+            assertEquals(1, readFrame(input(first)));
+            assertEquals(1, readFrame(input(second)));
+            try {
+                readFrame(input(third));
+                fail("Klient ponad limit powinien zostać rozłączony");
+            } catch (EOFException expected) {
+                // Serwer zamknął połączenie
+            }
+        } finally {
+            first.close();
+            second.close();
+            third.close();
+        }
+    }
+
+    @Test
+    public void acceptsNewClientAfterDisconnect() throws IOException, InterruptedException {
+        mServer.publish(tableWithFaces(1), 0);
+
+        Socket first = connect();
+        Socket second = connect();
+        assertEquals(1, readFrame(input(first)));
+        assertEquals(1, readFrame(input(second)));
+        first.close();
+
+        // Serwer zwalnia miejsce po wykryciu rozłączenia - ponawiamy połączenie do skutku
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        try {
+            while (true) {
+                Socket client = connect();
+                try {
+                    readFrame(input(client));
+                    return;
+                } catch (EOFException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        fail("Serwer nie przyjął nowego klienta po rozłączeniu poprzedniego");
+                    }
+                    Thread.sleep(20);
+                } finally {
+                    client.close();
+                }
+            }
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void startFailsWhenPortIsTaken() throws IOException {
+        ServerSocket taken = new ServerSocket();
+        try {
+            taken.bind(new InetSocketAddress("127.0.0.1", 0));
+            new FaceStreamServer(taken.getLocalPort()).start();
+        } finally {
+            taken.close();
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("127.0.0.1", mServer.getLocalPort()), TIMEOUT_MS);
+        socket.setSoTimeout(TIMEOUT_MS);
+        return socket;
+    }
+
+    private static DataInputStream input(Socket socket) throws IOException {
+        return new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    /**
+     * Odczytuje jedną klatkę i zwraca jej numer.
+     */
+    private static long readFrame(DataInputStream in) throws IOException {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        assertEquals(FaceStreamServer.MAGIC, buffer.getInt());
+        assertEquals(FaceStreamServer.VERSION, buffer.getShort());
+        int count = buffer.getShort();
+        assertEquals(FaceStreamServer.HEADER_SIZE - 4 + count * FaceStreamServer.FACE_SIZE, frame.length);
+        return buffer.getLong();
+    }
+
+    private static FaceTable tableWithFaces(int count) {
+        FaceTable table = new FaceTable(count);
+        for (int i = 0; i < count; i++) {
+            table.add(i, i, i, 10, 10, 0, 0, 0.5f);
+        }
+        return table;
+    }
+}